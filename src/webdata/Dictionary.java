@@ -1,33 +1,66 @@
 package webdata;
 
-import webdata.utils.Encoder;
-import webdata.utils.Utils;
+import webdata.utils.BlockPostingsIterator;
+import webdata.utils.ImpactList;
+import webdata.utils.IndexFile;
+import webdata.utils.MappedFile;
+import webdata.utils.PerfectHash;
+import webdata.utils.PostingCodec;
+import webdata.utils.PostingsIterator;
+import webdata.utils.ReaderWrapper;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
 import java.util.ArrayList;
-import java.util.Collection;
-import java.util.TreeMap;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
 
 /**
  * An object representing an index Lexicon
  */
-public class Dictionary implements Serializable {
+public class Dictionary {
 
     private static final int K = 100;
+    private static final int MATCH = Integer.MAX_VALUE;
+    private static final int INDEX_FILE_KIND = 1;
     private boolean isProduct;
-    private String concatStr = "";
-    private int[] termPtr;
+    private ByteBuffer terms;
+    private IntBuffer termPtr;
     private int numOfBlocks;
     private int numOfTerms;
     private String path;
 
-    private int[] frequency;
-    private long[] postingPtr;
-    private short[] length;
-    private short[] prefixSize;
+    private IntBuffer frequency;
+    private IntBuffer documentFrequency;
+    private IntBuffer maxFrequency;
+    private LongBuffer postingPtr;
+    private ByteBuffer codecs;
+
+    /* An optional minimal perfect hash of the terms, replacing the binary search */
+    private PerfectHash hash;
 
     private long filePointer = 0;
 
+    /* The postings of the term currently built, and a buffer for their encoding */
+    private int[] termReviews;
+    private int[] termFrequencies;
+    private int termLength;
+    private PostingCodec encoder;
+
+    /* The posting list file, mapped when the dictionary is opened for reading */
+    private MappedFile postingFile;
+
+    /* The optional impact ordered posting lists of the terms, and their file */
+    private LongBuffer impactPtr;
+    private MappedFile impactFile;
+    private long impactFilePointer = 0;
+    private ImpactList.Encoder impactEncoder;
+
     /**
      * Constructor
      * @param numOfTerms Number of terms in the file
@@ -35,24 +68,31 @@ public class Dictionary implements Serializable {
      * @param isProduct Indicates if the term is productId or token
      * @param dir The directory in which the dictionary is saved
      * @param mapping A map of a number to term (i is mapped to the string at index i)
+     * @param impactOrdered Indicates if an impact ordered copy of every posting list is written as well, for tokens
      */
-    Dictionary(int numOfTerms, String sortedTermsFile, Boolean isProduct, String dir, ArrayList<String> mapping) {
+    Dictionary(int numOfTerms, String sortedTermsFile, Boolean isProduct, String dir, ArrayList<String> mapping,
+               boolean impactOrdered) {
         this.isProduct = isProduct;
         this.numOfTerms = numOfTerms;
         numOfBlocks = (int)Math.ceil(numOfTerms / (double)K);
-        termPtr = new int[numOfBlocks];
-
-        path = (isProduct) ?
-                dir + File.separator + IndexWriter.productPostingListFileName :
-                dir + File.separator + IndexWriter.tokenPostingListFileName;
-
-        frequency = new int[numOfTerms];
-        postingPtr = new long[numOfTerms];
-        length = new short[numOfTerms];
-        prefixSize = new short[numOfTerms];
+        termPtr = IntBuffer.allocate(numOfBlocks);
+        path = postingListPath(dir, isProduct);
+
+        frequency = IntBuffer.allocate(numOfTerms);
+        documentFrequency = IntBuffer.allocate(numOfTerms);
+        maxFrequency = IntBuffer.allocate(numOfTerms);
+        postingPtr = LongBuffer.allocate(numOfTerms);
+        codecs = ByteBuffer.allocate(numOfTerms);
+        impactOrdered = impactOrdered && !isProduct;
+        if (impactOrdered) {
+            impactPtr = LongBuffer.allocate(numOfTerms);
+            impactEncoder = new ImpactList.Encoder();
+        }
 
-        try (BufferedOutputStream bos = new BufferedOutputStream(new FileOutputStream(new File(path)))) {
-            build(sortedTermsFile, bos, mapping);
+        try (BufferedOutputStream bos = new BufferedOutputStream(new FileOutputStream(new File(path)));
+             BufferedOutputStream impactBos = impactOrdered ?
+                     new BufferedOutputStream(new FileOutputStream(new File(impactListPath(dir)))) : null) {
+            build(sortedTermsFile, bos, impactBos, mapping);
         } catch (IOException e) {
             System.err.println(e.getMessage());
             System.exit(1);
@@ -67,180 +107,238 @@ public class Dictionary implements Serializable {
     }
 
     /**
-     * Build the concatenated String with all known tokens.
+     * Build the front coded blocks of all known terms.
      * Update all data structures with it's info.
      */
-    private void build(String sortedTermsFile, BufferedOutputStream bos, ArrayList<String> mapping) {
-        StringBuilder sb = new StringBuilder();
-        try (BufferedReader reader = new BufferedReader(new FileReader(new File(sortedTermsFile)))){
-            String line;
-            TreeMap<Integer, Integer> termData = new TreeMap<>();
+    private void build(String sortedTermsFile, BufferedOutputStream bos, BufferedOutputStream impactBos,
+                       ArrayList<String> mapping) {
+        ByteArrayOutputStream termBytes = new ByteArrayOutputStream();
+        termReviews = new int[1 << 10];
+        termFrequencies = new int[termReviews.length];
+        encoder = new PostingCodec();
+        try (ReaderWrapper reader = new ReaderWrapper(Paths.get(sortedTermsFile))){
             String prevTerm = "";
             int i = -1;
 
-            while ((line = reader.readLine()) != null) {
-                if (line.isEmpty()) {
-                    continue;
-                }
-
-                webdata.utils.Line lineObject = new webdata.utils.Line(line);
-                String term = mapping.get(lineObject.getTerm());
-                int reviewId = lineObject.getReviewId();
-                int frequency = lineObject.getFrequency();
+            while (reader.advancePtr()) {
+                String term = mapping.get(reader.getTerm());
+                int reviewId = reader.getReviewId();
+                int frequency = reader.getFrequency();
 
                 if (!term.equals(prevTerm)) {
                     if (i > -1) {
-                        buildFrequency(termData, i);
-                        buildPostingList(termData, i, bos);
-                        termData = new TreeMap<>();
+                        buildFrequency(i);
+                        buildPostingList(i, bos, impactBos);
                     }
                     ++i;
+                    termLength = 0;
 
+                    byte[] bytes = term.getBytes(StandardCharsets.ISO_8859_1);
                     if (i % K == 0) {
-                        termPtr[(i / K)] = sb.length();
-                        prefixSize[i] = 0;
-                        sb.append(term);
+                        termPtr.put(i / K, termBytes.size());
+                        writeVarint(bytes.length, termBytes);
+                        termBytes.write(bytes, 0, bytes.length);
                     }
                     else {
-                        short psize = findPrefix(prevTerm, term);
-                        prefixSize[i] = psize;
-                        sb.append(term.substring(psize));
+                        int psize = findPrefix(prevTerm, term);
+                        writeVarint(psize, termBytes);
+                        writeVarint(bytes.length - psize, termBytes);
+                        termBytes.write(bytes, psize, bytes.length - psize);
                     }
 
-                    length[i] = (short) term.length();
-
                     prevTerm = term;
                 }
-                termData.put(reviewId, frequency);
+                addPosting(reviewId, frequency);
             }
 
-            concatStr = sb.toString();
+            terms = ByteBuffer.wrap(termBytes.toByteArray());
 
             if (i > -1) {
-                buildFrequency(termData, i);
-                buildPostingList(termData, i, bos);
-                termData = new TreeMap<>();
+                buildFrequency(i);
+                buildPostingList(i, bos, impactBos);
             }
         } catch (IOException e) {
             System.err.println(e.getMessage());
             System.exit(1);
         }
+        termReviews = null;
+        termFrequencies = null;
+        encoder = null;
+        impactEncoder = null;
+    }
+
+    /**
+     * Add a posting of the currently processed term. Postings are added in order of their reviews.
+     * @param reviewId The review of the posting
+     * @param frequency The frequency of the term in the review
+     */
+    private void addPosting(int reviewId, int frequency) {
+        if (termLength == termReviews.length) {
+            termReviews = Arrays.copyOf(termReviews, termLength * 2);
+            termFrequencies = Arrays.copyOf(termFrequencies, termLength * 2);
+        }
+        termReviews[termLength] = reviewId;
+        termFrequencies[termLength] = frequency;
+        ++termLength;
     }
 
     /**
-     * Populate the frequency data structure.
-     * @param termData The data for the currently processed term
+     * Populate the frequency, document frequency and maximal frequency data structures.
      * @param i Index to add at
      */
-    private void buildFrequency(TreeMap<Integer, Integer> termData, int i) {
-        Collection<Integer> allFrequencies = termData.values();
-        frequency[i] =  allFrequencies.stream().mapToInt(Integer::intValue).sum();  // Sum all values
+    private void buildFrequency(int i) {
+        int sum = 0;
+        int max = 0;
+        for (int j = 0; j < termLength; ++j) {
+            sum += termFrequencies[j];
+            max = Math.max(max, termFrequencies[j]);
+        }
+        frequency.put(i, sum);
+        documentFrequency.put(i, termLength);
+        maxFrequency.put(i, max);
     }
 
     /**
-     * Populate the posting list data structure.
-     * @param termData The data for the currently processed term
+     * Populate the posting list data structure, and the impact ordered one if there is one.
      * @param i Index to add at
      */
-    private void buildPostingList(TreeMap<Integer, Integer> termData, int i, BufferedOutputStream bos)
+    private void buildPostingList(int i, BufferedOutputStream bos, BufferedOutputStream impactBos)
             throws IOException{
-        ArrayList<Integer> reviews = new ArrayList<>(termData.keySet());
-        ArrayList<Byte> encodedReviews = Encoder.encode(reviews, true);
-        postingPtr[i] =  write(encodedReviews, bos);
-        if (!isProduct) {
-            ArrayList<Integer> frequencies = new ArrayList<>(termData.values());
-            ArrayList<Byte> encodedFrequencies = Encoder.encode(frequencies, false);
-            write(encodedFrequencies, bos);
+        encoder.encode(termReviews, isProduct ? null : termFrequencies, termLength);
+        codecs.put(i, encoder.getCodec());
+        postingPtr.put(i, write(encoder.getEncoded(), encoder.getSize(), bos));
+        if (impactBos != null) {
+            impactEncoder.encode(termReviews, termFrequencies, termLength);
+            impactPtr.put(i, impactFilePointer);
+            impactBos.write(impactEncoder.getEncoded(), 0, impactEncoder.getSize());
+            impactFilePointer += impactEncoder.getSize();
         }
     }
 
     /**
      * Write an array to a file specified in path.
      * @param arr Array to write
+     * @param size The number of bytes to write
      * @return Position that written started
      */
-    public long write(ArrayList<Byte> arr, BufferedOutputStream bos) throws IOException{
+    private long write(byte[] arr, int size, BufferedOutputStream bos) throws IOException{
             long pos  = filePointer;
-            byte[] arrAsByte = new byte[arr.size()];
-            Utils.toPrimitiveArray(arr, arrAsByte);
-            bos.write(arrAsByte);
-            filePointer += arr.size();
+            bos.write(arr, 0, size);
+            filePointer += size;
             return pos;
     }
 
     /**
-     * Get the length of the relevant posting list starting at pos
-     * @param pos Location in file of the relevant posting list
+     * Return the path of the posting list file of a dictionary in the given directory
      */
-    int readLength(long pos){
-        try (RandomAccessFile raf = new RandomAccessFile(path, "rw")){
-            raf.seek(pos);
-            return raf.readInt();  // Read the first 4 bytes, hence the length of the wanted array
-        } catch (IOException e) {
-            System.err.println(e.getMessage());
-            System.exit(1);
-        }
-        return -1;  // Will never happen
-    }
-
-    /**
-     * Reads the posting list starting at pos
-     * @param pos Location in file of the relevant posting list
-     * @return An Integer array containing the posting list
-     */
-    public Integer[] read(long pos, long nextPos) {
-        try (RandomAccessFile raf = new RandomAccessFile(path, "rw")){
-            nextPos = (nextPos == -1) ? raf.length(): nextPos;
-            raf.seek(pos);
-            int len = raf.readInt();  // Read the first 4 bytes, hence the length of the wanted array
-            raf.seek(pos);  // Reset the pos
-            byte[] byteArray = new byte[(int) (nextPos - pos)];
-            raf.read(byteArray);
-
-            long[] endPtr = new long[1];
-            Integer[] reviews = Encoder.decode(byteArray, true, endPtr);
-            assert (len == reviews.length);
-            if (!isProduct) {
-                raf.seek(pos + endPtr[0]);
-                raf.read(byteArray);
-                Integer[] frequencies = Encoder.decode(byteArray, false, endPtr);
-                return weave(reviews, frequencies);
-            }
-            return reviews;
+    private static String postingListPath(String dir, boolean isProduct) {
+        return (isProduct) ?
+                dir + File.separator + IndexWriter.productPostingListFileName :
+                dir + File.separator + IndexWriter.tokenPostingListFileName;
+    }
 
-        } catch (IOException e) {
-            System.err.println(e.getMessage());
-            System.exit(1);
+    /**
+     * Return the path of the impact ordered posting list file of the tokens in the given directory
+     */
+    private static String impactListPath(String dir) {
+        return dir + File.separator + IndexWriter.tokenImpactListFileName;
+    }
+
+    /**
+     * Write the dictionary as an index file, to be opened in place by open.
+     * @param file The path of the file
+     * @throws IOException
+     */
+    void write(String file) throws IOException {
+        IndexFile.Writer writer = new IndexFile.Writer(INDEX_FILE_KIND);
+        writer.add(LongBuffer.wrap(new long[] {isProduct ? 1 : 0, numOfTerms, (hash != null) ? 1 : 0,
+                                               (impactPtr != null) ? 1 : 0}));
+        writer.add(termPtr);
+        writer.add(terms);
+        writer.add(frequency);
+        writer.add(postingPtr);
+        writer.add(codecs);
+        writer.add(documentFrequency);
+        writer.add(maxFrequency);
+        if (hash != null) {
+            hash.write(writer);
+        }
+        if (impactPtr != null) {
+            writer.add(impactPtr);
         }
-        return null;  // Will never happen
+        writer.write(file);
     }
 
     /**
-     * Weave two arrays with elements alternatively inserted into the output.
-     * @param a1 First array
-     * @param a2 Second array
-     * @return The two arrays weaved together
+     * Open a dictionary written by write, mapping it's file and it's posting list file to be used in place and
+     * shared by all the readers of the dictionary. Nothing is copied to the heap.
+     * @param file The path of the dictionary's file
+     * @param dir The directory of the dictionary's segment
+     * @return The dictionary
+     * @throws IOException
      */
-    private Integer[] weave(Integer[] a1, Integer[] a2) {
-        Integer[] output = new Integer[a1.length + a2.length];
-        int i = 0, j = 0, k = 0;
+    static Dictionary open(String file, String dir) throws IOException {
+        return new Dictionary(new IndexFile(file, INDEX_FILE_KIND), dir);
+    }
 
-        // Traverse both array
-        while (i < a1.length && j < a2.length)
-        {
-            output[k++] = a1[i++];
-            output[k++] = a2[j++];
+    /**
+     * Constructor of a dictionary opened from an index file.
+     * @param file The index file
+     * @param dir The directory of the dictionary's segment
+     * @throws IOException
+     */
+    private Dictionary(IndexFile file, String dir) throws IOException {
+        LongBuffer scalars = file.longs(0);
+        isProduct = scalars.get(0) != 0;
+        numOfTerms = (int) scalars.get(1);
+        numOfBlocks = (int)Math.ceil(numOfTerms / (double)K);
+        termPtr = file.ints(1);
+        terms = file.bytes(2);
+        frequency = file.ints(3);
+        postingPtr = file.longs(4);
+        codecs = file.bytes(5);
+        documentFrequency = file.ints(6);
+        maxFrequency = file.ints(7);
+        int section = 8;
+        if (scalars.get(2) != 0) {
+            hash = new PerfectHash(file, section);
+            section += 4;
         }
+        path = postingListPath(dir, isProduct);
+        postingFile = new MappedFile(path);
+        if (scalars.get(3) != 0) {
+            impactPtr = file.longs(section);
+            impactFile = new MappedFile(impactListPath(dir));
+        }
+    }
 
-        // Store remaining elements of first array
-        while (i < a1.length)
-            output[k++] = a1[i++];
+    /**
+     * Reads the posting list of the i'th term, in place from the mapped posting file
+     * @param i The position of the term
+     * @return An iterator over the posting list
+     */
+    PostingsIterator postings(int i) {
+        long pos = postingPtr.get(i);
+        long nextPos = (i + 1 < numOfTerms) ? postingPtr.get(i + 1) : postingFile.length();
+        return new BlockPostingsIterator(codecs.get(i), postingFile.slice(pos, (int) (nextPos - pos)), 0, !isProduct);
+    }
 
-        // Store remaining elements of second array
-        while (j < a2.length)
-            output[k++] = a2[j++];
+    /**
+     * Check if the dictionary has impact ordered posting lists
+     */
+    boolean isImpactOrdered() {
+        return impactPtr != null;
+    }
 
-        return output;
+    /**
+     * Reads the impact ordered posting list of the i'th term. The dictionary must be impact ordered.
+     * @param i The position of the term
+     * @return The impact ordered list
+     */
+    ImpactList impacts(int i) {
+        long pos = impactPtr.get(i);
+        long nextPos = (i + 1 < numOfTerms) ? impactPtr.get(i + 1) : impactFile.length();
+        return new ImpactList(impactFile.slice(pos, (int) (nextPos - pos)), 0);
     }
 
     /**
@@ -249,109 +347,312 @@ public class Dictionary implements Serializable {
      * @param curr The second string to check
      * @return The length of the longest common prefix.
      */
-    private short findPrefix(String prev, String curr) {
+    private int findPrefix(String prev, String curr) {
         int minLength = Math.min(prev.length(), curr.length());
         for (int i = 0; i < minLength; i++) {
             if (prev.charAt(i) != curr.charAt(i)) {
-                return (short)i;
+                return i;
             }
         }
-        return (short)minLength;
+        return minLength;
     }
 
     /**
-     * Search for a term in the dictionary
-     * @param term The term to search
-     * @return The position of the term in the concatenated String, or -1 if not found.
+     * Write a non-negative int as a varint of 7 bits per byte, lowest bits first.
      */
-    int searchTerm(String term) {
-        return binarySearch(0, numOfBlocks - 1, term);
+    private static void writeVarint(int value, ByteArrayOutputStream out) {
+        while (value >= 0x80) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
     }
 
     /**
-     * A binary search for the given term.
-     * @param left Left bound
-     * @param right Right bound
-     * @param term Term to search for
-     * @return The position of the term within the bounds, or -1 of not found.
+     * Read the varint at the given position of the terms.
      */
-    private int binarySearch(int left, int right, String term) {
-        if (right == left) {
-            if (term.equals(concatStr.substring(termPtr[left], termPtr[left] + length[left * K])))
-                return left * K;
-            return rangeSearch(left, term);
+    private int readVarint(int pos) {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            int b = terms.get(pos++);
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
         }
-        if (right > left) {
-            int mid = left + (right - left) / 2;
+    }
 
+    /**
+     * Return the number of bytes of the varint of the given value.
+     */
+    private static int varintSize(int value) {
+        int size = 1;
+        while (value >= 0x80) {
+            value >>>= 7;
+            ++size;
+        }
+        return size;
+    }
 
-            // If the element is present at the
-            // middle itself
-            if (term.equals(concatStr.substring(termPtr[mid], termPtr[mid] + length[mid * K])))
-                return mid * K;
+    /**
+     * Compare the end of a term to a range of the terms, as String.compareTo would compare them. Terms hold chars of
+     * a single byte, so every byte is compared to a char.
+     * @param term The term
+     * @param from The index in term to compare from
+     * @param pos The position of the range in the terms
+     * @param numOfBytes The length of the range
+     * @return The length of the common prefix of the two if term is greater, or -1 minus it if term is smaller, or
+     *         MATCH if they're equal
+     */
+    private int compare(String term, int from, int pos, int numOfBytes) {
+        int bound = Math.min(term.length() - from, numOfBytes);
+        for (int j = 0; j < bound; ++j) {
+            int c = term.charAt(from + j) - (terms.get(pos + j) & 0xFF);
+            if (c != 0) {
+                return (c > 0) ? j : -1 - j;
+            }
+        }
+        if (term.length() - from == numOfBytes) {
+            return MATCH;
+        }
+        return (term.length() - from > numOfBytes) ? bound : -1 - bound;
+    }
 
-            // If element is smaller than mid, then
-            // it can only be present in left subarray
-            if (term.compareTo(concatStr.substring(termPtr[mid], termPtr[mid] + length[mid * K])) < 0)
-                return binarySearch(left, mid - 1, term);
+    /**
+     * Build a minimal perfect hash of the terms, which searchTerm uses instead of the binary search.
+     * It suits terms that don't share prefixes, which make the binary search slow while the hash is as fast for any
+     * terms, such as productIds. If the hash can't be built the binary search is kept.
+     */
+    void buildHash() {
+        String[] keys = new String[numOfTerms];
+        Iterator<String> it = terms();
+        for (int i = 0; i < numOfTerms; ++i) {
+            keys[i] = it.next();
+        }
+        try {
+            hash = new PerfectHash(keys);
+        } catch (IllegalArgumentException e) {
+            hash = null;
+        }
+    }
 
-            // Else the element can only be present
-            // in right subarray
-            if (term.compareTo(concatStr.substring(termPtr[mid + 1],
-                                                   termPtr[mid + 1] + length[(mid + 1) * K])) < 0) {
-                return binarySearch(mid, mid, term);
+    /**
+     * Check if the i'th term is the given term, without allocating.
+     * The block of the term is scanned up to it, tracking the length of the common prefix of the given term and every
+     * term on the way: a term sharing more than that with the previous term shares exactly that with the given term.
+     */
+    private boolean termEquals(int i, String term) {
+        int pos = termPtr.get(i / K);
+        int termLength = readVarint(pos);
+        pos += varintSize(termLength);
+        int matched = commonPrefix(term, 0, pos, termLength);
+        pos += termLength;
+        for (int j = (i / K) * K + 1; j <= i; ++j) {
+            int prefix = readVarint(pos);
+            pos += varintSize(prefix);
+            int suffix = readVarint(pos);
+            pos += varintSize(suffix);
+            if (prefix <= matched) {
+                matched = prefix + commonPrefix(term, prefix, pos, suffix);
             }
+            termLength = prefix + suffix;
+            pos += suffix;
+        }
+        return matched == termLength && termLength == term.length();
+    }
 
-            return binarySearch(mid + 1, right, term);
-
+    /**
+     * Return the length of the common prefix of the end of a term and a range of the terms.
+     * @param term The term
+     * @param from The index in term to compare from
+     * @param pos The position of the range in the terms
+     * @param numOfBytes The length of the range
+     */
+    private int commonPrefix(String term, int from, int pos, int numOfBytes) {
+        int bound = Math.min(term.length() - from, numOfBytes);
+        int j = 0;
+        while (j < bound && term.charAt(from + j) == (terms.get(pos + j) & 0xFF)) {
+            ++j;
         }
+        return j;
+    }
 
-        // We reach here when element is not present in array
-        return -1;
+    /**
+     * Search for a term in the dictionary, without allocating.
+     * The first terms of the blocks are binary searched for the last block starting at most at the term, which is
+     * then searched linearly.
+     * @param term The term to search
+     * @return The position of the term, or -1 if not found.
+     */
+    int searchTerm(String term) {
+        if (hash != null) {
+            int i = hash.get(term);
+            return (i >= 0 && termEquals(i, term)) ? i : -1;
+        }
+        int left = 0, right = numOfBlocks - 1;
+        while (left <= right) {
+            int mid = (left + right) >>> 1;
+            int pos = termPtr.get(mid);
+            int len = readVarint(pos);
+            int c = compare(term, 0, pos + varintSize(len), len);
+            if (c == MATCH) {
+                return mid * K;
+            }
+            if (c < 0) {
+                right = mid - 1;
+            } else {
+                left = mid + 1;
+            }
+        }
+        return (right < 0) ? -1 : rangeSearch(right, term);
     }
 
     /**
      * Once found the block (of size K) in which the term is found, search linearly for the exact position within.
-     * @param left Left bound
+     * The terms are compared in place: the length of the common prefix of the term and the previous term in the block
+     * tells if the next term, sharing a prefix of a known length with the previous one, may still match.
+     * @param block The block, which starts with a term smaller than the searched term
      * @param term The term to search for
-     * @return The position of the term within the bounds, or -1 of not found.
-     */
-    private int rangeSearch(int left, String term) {
-        int basePtr = termPtr[left];
-        int i = left * K ;
-        String prevTerm = concatStr.substring(basePtr, basePtr + length[i]);
-        basePtr += length[i];
-
-        String curr;
-        // Set the bound to fit the number of terms in the current block (starts at index left)
-        int bound = ((left == termPtr.length - 1) && (numOfTerms - i < K)) ? numOfTerms : i + K;
-        ++i;
+     * @return The position of the term within the block, or -1 of not found.
+     */
+    private int rangeSearch(int block, String term) {
+        int pos = termPtr.get(block);
+        int len = readVarint(pos);
+        pos += varintSize(len);
+        int matched = compare(term, 0, pos, len);
+        pos += len;
+
+        int i = block * K + 1;
+        int bound = Math.min(numOfTerms, (block + 1) * K);
         while (i < bound) {
-            curr = concatStr.substring(basePtr, basePtr + length[i] - prefixSize[i]);
-            String prefix = prevTerm.substring(0, prefixSize[i]);
-            curr = prefix.concat(curr);
-            if (term.equals(curr)) {
-                return i;
+            int prefix = readVarint(pos);
+            pos += varintSize(prefix);
+            int suffix = readVarint(pos);
+            pos += varintSize(suffix);
+            if (prefix < matched) {
+                // The term is smaller than this term, so it's not in the dictionary
+                return -1;
             }
-
-            prevTerm = curr;
-            basePtr += length[i] - prefixSize[i];
+            if (prefix == matched) {
+                int c = compare(term, matched, pos, suffix);
+                if (c == MATCH) {
+                    return i;
+                }
+                if (c < 0) {
+                    return -1;
+                }
+                matched += c;
+            }
+            pos += suffix;
             ++i;
         }
         return -1;
     }
 
+    /**
+     * Iterate over the terms of the dictionary in order, decoding the front coded String as it goes.
+     * @return An iterator over the terms, where the i'th term returned is the term at position i
+     */
+    Iterator<String> terms() {
+        return new Iterator<String>() {
+            private int i = 0;
+            private int pos = 0;
+            private byte[] term = new byte[1 << 6];
+
+            @Override
+            public boolean hasNext() {
+                return i < numOfTerms;
+            }
+
+            @Override
+            public String next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                int prefix = 0;
+                if (i % K == 0) {
+                    pos = termPtr.get(i / K);
+                } else {
+                    prefix = readVarint(pos);
+                    pos += varintSize(prefix);
+                }
+                int suffix = readVarint(pos);
+                pos += varintSize(suffix);
+                if (prefix + suffix > term.length) {
+                    term = Arrays.copyOf(term, Math.max(prefix + suffix, term.length * 2));
+                }
+                terms.get(pos, term, prefix, suffix);
+                pos += suffix;
+                ++i;
+                return new String(term, 0, prefix + suffix, StandardCharsets.ISO_8859_1);
+            }
+        };
+    }
+
+    /**
+     * Return the i'th term, decoding it from it's block.
+     */
+    String getTerm(int i) {
+        int pos = termPtr.get(i / K);
+        int length = readVarint(pos);
+        pos += varintSize(length);
+        byte[] term = new byte[Math.max(length, 1 << 6)];
+        terms.get(pos, term, 0, length);
+        pos += length;
+        for (int j = (i / K) * K + 1; j <= i; ++j) {
+            int prefix = readVarint(pos);
+            pos += varintSize(prefix);
+            int suffix = readVarint(pos);
+            pos += varintSize(suffix);
+            if (prefix + suffix > term.length) {
+                term = Arrays.copyOf(term, Math.max(prefix + suffix, term.length * 2));
+            }
+            terms.get(pos, term, prefix, suffix);
+            pos += suffix;
+            length = prefix + suffix;
+        }
+        return new String(term, 0, length, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Return the path of the posting list file
+     */
+    String getPath() {
+        return path;
+    }
+
     /**
      * Return the frequency of the i'th term
      */
     int getFrequency(int i) {
-        return frequency[i];
+        return frequency.get(i);
+    }
+
+    /**
+     * Return the number of reviews containing the i'th term
+     */
+    int getDocumentFrequency(int i) {
+        return documentFrequency.get(i);
+    }
+
+    /**
+     * Return the largest number of times the i'th term appears in a single review
+     */
+    int getMaxFrequency(int i) {
+        return maxFrequency.get(i);
+    }
+
+    /**
+     * Return the codec byte of the i'th term's posting list
+     */
+    byte getCodec(int i) {
+        return codecs.get(i);
     }
 
     /**
      * Return the posting list position of the i'th term
      */
     long getPostingPtr(int i) {
-        return postingPtr[i];
+        return postingPtr.get(i);
     }
 }
@@ -1,17 +1,31 @@
 package webdata;
 
+import webdata.utils.ConcatPostingsIterator;
+import webdata.utils.ImpactList;
+import webdata.utils.PostingsCache;
+import webdata.utils.PostingsEnumeration;
+import webdata.utils.PostingsIterator;
+
 import java.io.*;
 import java.rmi.server.ExportException;
 import java.text.SimpleDateFormat;
-import java.util.Arrays;
+import java.util.ArrayList;
 import java.util.Enumeration;
-import java.util.Vector;
 
+/**
+ * A reader of an on disk index. An index may consist of several segments, which are searched as a single index.
+ */
 public class IndexReader {
 
-    Dictionary tokenDict;
-    Dictionary productDict;
-    ReviewData rd;
+    Segment[] segments;
+    int numOfReviews;
+
+    /* Collection statistics, summed over the segments when the index is opened */
+    long totalTokens;
+
+    /* Decoded posting lists of the segments, shared by all the searches of this reader. Empty unless it's size is set,
+       as a list admitted is decoded whole even if a search only reads a few of it's blocks. */
+    private volatile PostingsCache postingsCache = new PostingsCache(0);
 
     /**
      * Creates an IndexReader which will read from the given directory
@@ -19,30 +33,49 @@ public class IndexReader {
      */
     public IndexReader(String dir) {
         try {
-            ObjectInputStream tokenDictReader = new ObjectInputStream(new FileInputStream(dir + File.separator + IndexWriter.tokenDictFileName));
-            tokenDict = (Dictionary) tokenDictReader.readObject();
-            tokenDictReader.close();
-
-            ObjectInputStream productDictReader = new ObjectInputStream(new FileInputStream(dir + File.separator + IndexWriter.productDictFileName));
-            productDict = (Dictionary) productDictReader.readObject();
-            productDictReader.close();
-
-            ObjectInputStream reviewDataReader = new ObjectInputStream(new FileInputStream(dir + File.separator + IndexWriter.reviewDataFileName));
-            rd = (ReviewData) reviewDataReader.readObject();
-            reviewDataReader.close();
-        } catch(IOException|ClassNotFoundException e) {
+            Segments manifest = Segments.read(dir);
+            segments = new Segment[manifest.size()];
+            for (int i = 0; i < segments.length; ++i) {
+                segments[i] = new Segment(dir + File.separator + manifest.getName(i), manifest.getFirstReviewId(i));
+            }
+            numOfReviews = manifest.getNumOfReviews();
+            for (Segment segment: segments) {
+                totalTokens += segment.rd.getTotalTokens();
+            }
+        } catch(IOException e) {
             System.err.println(e.getMessage());
             System.exit(1);
         }
     }
 
+    /**
+     * Find the segment holding the given review.
+     * @param reviewId The review to look for
+     * @return The segment, or null if there is no review with the given identifier
+     */
+    private Segment segmentOf(int reviewId) {
+        int left = 0, right = segments.length - 1;
+        while (left <= right) {
+            int mid = (left + right) >>> 1;
+            if (reviewId < segments[mid].firstReviewId) {
+                right = mid - 1;
+            } else if (!segments[mid].contains(reviewId)) {
+                left = mid + 1;
+            } else {
+                return segments[mid];
+            }
+        }
+        return null;
+    }
+
     /**
      * @param reviewId The review to get the product id for.
      * @return The product identifier for the given review.
      *         Returns null if there is no review with the given identifier.
      */
     public String getProductId(int reviewId) {
-        return ((1 <= reviewId) && (reviewId <= rd.getNumOfReviews())) ? rd.getReviewProductId(reviewId - 1) : null;
+        Segment segment = segmentOf(reviewId);
+        return (segment != null) ? segment.getProductId(segment.localId(reviewId)) : null;
     }
 
     /**
@@ -51,8 +84,8 @@ public class IndexReader {
      *         Returns -1 if there is no review with the given identifier.
      */
     public int getReviewScore(int reviewId) {
-        return ((1 <= reviewId) && (reviewId <= rd.getNumOfReviews())) ?
-                rd.getScore(reviewId - 1) : -1;
+        Segment segment = segmentOf(reviewId);
+        return (segment != null) ? segment.rd.getScore(segment.localId(reviewId)) : -1;
     }
 
     /**
@@ -61,8 +94,8 @@ public class IndexReader {
      *         Returns -1 if there is no review with the given identifier
      */
     public int getReviewHelpfulnessNumerator(int reviewId) {
-        return ((1 <= reviewId) && (reviewId <= rd.getNumOfReviews())) ?
-                rd.getHelpfulnessNumerator(reviewId - 1) : -1;
+        Segment segment = segmentOf(reviewId);
+        return (segment != null) ? segment.rd.getHelpfulnessNumerator(segment.localId(reviewId)) : -1;
     }
 
     /**
@@ -71,8 +104,34 @@ public class IndexReader {
      *         Returns -1 if there is no review with the given identifier
      */
     public int getReviewHelpfulnessDenominator(int reviewId) {
-        return ((1 <= reviewId) && (reviewId <= rd.getNumOfReviews())) ?
-                rd.getHelpfulnessDenominator(reviewId - 1) : -1;
+        Segment segment = segmentOf(reviewId);
+        return (segment != null) ? segment.rd.getHelpfulnessDenominator(segment.localId(reviewId)) : -1;
+    }
+
+    /**
+     * Read the score and helpfulness of many reviews at once, segment by segment, straight from the review data
+     * columns. An invalid review gets -1 for all three.
+     * @param reviewIds The reviews, best given in increasing order
+     * @param n The number of reviews in reviewIds
+     * @param scores Filled with the score of every review
+     * @param numerators Filled with the numerator of the helpfulness of every review
+     * @param denominators Filled with the denominator of the helpfulness of every review
+     */
+    public void getReviewScores(int[] reviewIds, int n, int[] scores, int[] numerators, int[] denominators) {
+        Segment segment = null;
+        for (int i = 0; i < n; ++i) {
+            if (segment == null || !segment.contains(reviewIds[i])) {
+                segment = segmentOf(reviewIds[i]);
+            }
+            if (segment == null) {
+                scores[i] = numerators[i] = denominators[i] = -1;
+                continue;
+            }
+            int localId = segment.localId(reviewIds[i]);
+            scores[i] = segment.rd.getScore(localId);
+            numerators[i] = segment.rd.getHelpfulnessNumerator(localId);
+            denominators[i] = segment.rd.getHelpfulnessDenominator(localId);
+        }
     }
 
     /**
@@ -81,8 +140,8 @@ public class IndexReader {
      *         Returns -1 if there is no review with the given identifier
      */
     public int getReviewLength(int reviewId) {
-        return ((1 <= reviewId) && (reviewId <= rd.getNumOfReviews())) ?
-                rd.getTokensPerReview(reviewId - 1) : -1;
+        Segment segment = segmentOf(reviewId);
+        return (segment != null) ? segment.rd.getTokensPerReview(segment.localId(reviewId)) : -1;
     }
 
 
@@ -95,12 +154,11 @@ public class IndexReader {
      *         Returns 0 if there are no reviews containing this token
      */
     public int getTokenFrequency(String token) {
-        int i = tokenDict.searchTerm(token.toLowerCase());
-        if (i < 0 || i >= tokenDict.getNumOfTerms()) {
-            return 0;
+        int frequency = 0;
+        for (Segment segment: segments) {
+            frequency += segment.getTokenFrequency(token.toLowerCase());
         }
-        long pos = tokenDict.getPostingPtr(i);
-        return tokenDict.readLength(pos);
+        return frequency;
     }
 
     /**
@@ -109,11 +167,24 @@ public class IndexReader {
      *         Returns 0 if there are no reviews containing this token
      */
     public int getTokenCollectionFrequency(String token) {
-        int i = tokenDict.searchTerm(token.toLowerCase());
-        if (i < 0 || i >= tokenDict.getNumOfTerms()) {
-            return 0;
+        int frequency = 0;
+        for (Segment segment: segments) {
+            frequency += segment.getTokenCollectionFrequency(token.toLowerCase());
         }
-        return tokenDict.getFrequency(i);
+        return frequency;
+    }
+
+    /**
+     * @param token The token to check.
+     * @return The largest number of times that a given token appears in a single review, which bounds the token's
+     *         term frequency in any review. Returns 0 if there are no reviews containing this token
+     */
+    public int getTokenMaxFrequency(String token) {
+        int max = 0;
+        for (Segment segment: segments) {
+            max = Math.max(max, segment.getTokenMaxFrequency(token.toLowerCase()));
+        }
+        return max;
     }
 
     /**
@@ -125,9 +196,47 @@ public class IndexReader {
      *         Returns an empty Enumeration if there are no reviews containing this token.
      */
      public Enumeration<Integer> getReviewsWithToken(String token) {
-         return enumHelper(tokenDict, token.toLowerCase());
+         return new PostingsEnumeration(getTokenPostings(token), true);
      }
 
+    /**
+     * @param token The token to check.
+     * @return An iterator over the reviews containing the given token and the token's frequency in each of them,
+     *         sorted by id. The posting list is decoded lazily, a block at a time.
+     */
+    public PostingsIterator getTokenPostings(String token) {
+        return postingsHelper(false, token.toLowerCase());
+    }
+
+
+    /**
+     * @return True if every segment of the index has impact ordered posting lists of it's tokens.
+     */
+    public boolean isImpactOrdered() {
+        for (Segment segment: segments) {
+            if (!segment.tokenDict.isImpactOrdered()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param token The token to check.
+     * @return The impact ordered posting lists of the token, one for every segment holding it, in which the reviews
+     *         are grouped by the token's frequency, highest first. The index must be impact ordered.
+     */
+    public ArrayList<ImpactList> getTokenImpacts(String token) {
+        ArrayList<ImpactList> lists = new ArrayList<>();
+        for (Segment segment: segments) {
+            ImpactList list = segment.impacts(token.toLowerCase());
+            if (list != null) {
+                lists.add(list);
+            }
+        }
+        return lists;
+    }
+
 
      // --------------------------------------------------------- //
 
@@ -136,18 +245,21 @@ public class IndexReader {
      * @return The number of product reviews available in the system.
      */
     public int getNumberOfReviews() {
-        return rd.getNumOfReviews();
+        return numOfReviews;
     }
 
     /**
      * @return The number of tokens in the system (Tokens should be counted as many times as they appear).
      */
     public int getTokenSizeOfReviews() {
-        int tokenCount = 0;
-        for (int i = 1; i <= getNumberOfReviews(); ++i) {
-            tokenCount += getReviewLength(i);
-        }
-        return tokenCount;
+        return (int) totalTokens;
+    }
+
+    /**
+     * @return The average number of tokens in a review, or 0 if there are no reviews.
+     */
+    public double getAverageReviewLength() {
+        return (numOfReviews == 0) ? 0 : ((double) totalTokens) / numOfReviews;
     }
 
 
@@ -161,7 +273,54 @@ public class IndexReader {
      *         Returns an empty Enumeration if there are no reviews for this product.
      */
     public Enumeration<Integer> getProductReviews(String productId) {
-        return enumHelper(productDict, productId);
+        return new PostingsEnumeration(getProductPostings(productId), false);
+    }
+
+    /**
+     * @param productId The id of the product to check.
+     * @return An iterator over the reviews for the given product identifier, sorted by id.
+     */
+    public PostingsIterator getProductPostings(String productId) {
+        return postingsHelper(true, productId);
+    }
+
+
+    /**
+     * Set the number of bytes of decoded posting lists kept in memory, which replaces the lists cached so far.
+     * The lists of terms read often are kept, while the lists of terms read once don't evict them. Defaults to 0,
+     * as an admitted list is decoded whole on it's first read, even by a search that would skip most of it's blocks.
+     * @param bytes The number of bytes, or 0 to decode every list from the posting files when it's read
+     */
+    public void setPostingsCacheSize(long bytes) {
+        postingsCache = new PostingsCache(bytes);
+    }
+
+    /**
+     * Keep the decoded posting lists of a token in memory for good, such as for the heaviest tokens of the queries.
+     * @param token The token
+     * @return True if the lists are pinned, or false if the pinned lists would take more than the cache's size
+     */
+    public boolean pinTokenPostings(String token) {
+        boolean pinned = true;
+        for (int s = 0; s < segments.length; ++s) {
+            pinned &= segments[s].pinPostings(segments[s].tokenDict, token.toLowerCase(), postingsCache,
+                                              cacheKeyPrefix(s, false));
+        }
+        return pinned;
+    }
+
+    /**
+     * @return The number of posting lists read from the cache of decoded lists
+     */
+    public long getPostingsCacheHits() {
+        return postingsCache.getHits();
+    }
+
+    /**
+     * @return The number of posting lists read from the posting files
+     */
+    public long getPostingsCacheMisses() {
+        return postingsCache.getMisses();
     }
 
 
@@ -169,21 +328,31 @@ public class IndexReader {
 
 
     /**
-     * Get the Enumaration list for the given Dictionary and term.
-     * @param dict Dictionary
+     * Return the key of a segment's dictionary in the cache of decoded lists, to which the ordinals of it's terms are
+     * added
+     */
+    private static long cacheKeyPrefix(int segment, boolean isProduct) {
+        return (((long) segment << 1) | (isProduct ? 1 : 0)) << 32;
+    }
+
+    /**
+     * Get the posting list of the given term, concatenating the posting lists of all segments.
+     * As the segments hold consecutive ranges of reviews, the concatenated list is sorted by review id.
+     * @param isProduct Indicates if the term is productId or token
      * @param term Term
-     * @return Enumaration
+     * @return An iterator over the posting list
      */
-    private Enumeration<Integer> enumHelper(Dictionary dict, String term) {
-        int i = dict.searchTerm(term);
-        if (i < 0 || i >= tokenDict.getNumOfTerms()) {
-            return new Vector<Integer>().elements();
+    private PostingsIterator postingsHelper(boolean isProduct, String term) {
+        PostingsCache cache = postingsCache;
+        ArrayList<PostingsIterator> lists = new ArrayList<>();
+        for (int s = 0; s < segments.length; ++s) {
+            Segment segment = segments[s];
+            PostingsIterator list = segment.postings(isProduct ? segment.productDict : segment.tokenDict, term, cache,
+                                                     cacheKeyPrefix(s, isProduct));
+            if (list != null) {
+                lists.add(list);
+            }
         }
-        long pos = dict.getPostingPtr(i);
-        long nextPos = (i + 1 < dict.getNumOfTerms()) ? dict.getPostingPtr(i + 1) : -1;
-        Integer[] list = dict.read(pos, nextPos);
-
-        Vector<Integer> reviewsWithToken = new Vector<>(Arrays.asList(list));
-        return reviewsWithToken.elements();
+        return (lists.size() == 1) ? lists.get(0) : new ConcatPostingsIterator(lists.toArray(new PostingsIterator[0]));
     }
 }
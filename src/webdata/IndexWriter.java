@@ -1,10 +1,16 @@
 package webdata;
 
+import webdata.utils.Throttle;
+
 import java.io.*;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  *
@@ -16,9 +22,105 @@ public class IndexWriter{
     static final String reviewDataFileName = "reviewData";
     static final String productPostingListFileName = "productPostingList";
     static final String tokenPostingListFileName = "tokenPostingList";
+    static final String tokenImpactListFileName = "tokenImpactList";
+    static final String segmentsFileName = "segments";
+    static final String segmentDirPrefix = "seg_";
     private final String tokensFileName = "tokenFile";
     private final String productsFileName = "productFile";
     private final String sortedIndicator = "_sorted";
+    private boolean compressTempFiles = false;
+    private int numOfThreads = Runtime.getRuntime().availableProcessors();
+    private long memoryBudget = Runtime.getRuntime().maxMemory() / 4;
+    private boolean hashProductIds = false;
+    private boolean impactOrdered = false;
+
+    /* Background merging of segments */
+    private int mergeFactor = 10;
+    private int minSegmentReviews = 1000;
+    private long mergeBytesPerSecond = 0;
+    private double mergeCpuFraction = 1;
+    private final Object manifestLock = new Object();
+
+    /* A single thread running the merges of the writer's lifetime one after the other, so waiting for the last one
+       submitted waits for all of them */
+    private final ExecutorService merger = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "segment-merger");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+    });
+    private Future<?> lastMerge;
+
+    /* Held by an append, a write or a full merge for all of it's run, so appends get their review ids one after the
+       other, and the index isn't removed or merged under an append */
+    private final Object appendLock = new Object();
+
+    /**
+     * Set whether the sorter's temp files are block compressed. Compression trades CPU for temp disk space.
+     * @param compress True to compress the temp files
+     */
+    public void setCompressTempFiles(boolean compress) {
+        this.compressTempFiles = compress;
+    }
+
+    /**
+     * Set the number of worker threads that tokenize and sort the input. Defaults to the number of processors.
+     * @param numOfThreads The number of threads
+     */
+    public void setNumOfThreads(int numOfThreads) {
+        this.numOfThreads = numOfThreads;
+    }
+
+    /**
+     * Set the number of bytes the sorter may hold in memory before spilling to temp files. A larger budget gives
+     * fewer, larger temp files. Defaults to a quarter of the maximal heap size.
+     * @param bytes The memory budget in bytes
+     */
+    public void setMemoryBudget(long bytes) {
+        this.memoryBudget = bytes;
+    }
+
+    /**
+     * Set whether productIds are looked up with a minimal perfect hash built at index time, instead of a binary search
+     * of the product dictionary. The hash takes a few bytes per product. Off by default.
+     * @param hash True to hash the productIds
+     */
+    public void setHashProductIds(boolean hash) {
+        this.hashProductIds = hash;
+    }
+
+    /**
+     * Set whether every token's posting list is also written in impact order, grouped by the frequency of the token
+     * from the highest to the lowest, for ReviewSearch.impactSearch. The copy takes about as much space as the posting
+     * lists of the tokens. Off by default.
+     * @param impactOrdered True to write the impact ordered lists
+     */
+    public void setImpactOrdered(boolean impactOrdered) {
+        this.impactOrdered = impactOrdered;
+    }
+
+    /**
+     * Set the merge policy of the segments: whenever mergeFactor adjacent segments are of about the same size they are
+     * merged into one in the background. Segments smaller than minSegmentReviews count as being of the same size.
+     * Defaults to 10 and 1000.
+     * @param mergeFactor The number of segments merged at once
+     * @param minSegmentReviews The number of reviews below which segments are not told apart by size
+     */
+    public void setMergePolicy(int mergeFactor, int minSegmentReviews) {
+        this.mergeFactor = mergeFactor;
+        this.minSegmentReviews = minSegmentReviews;
+    }
+
+    /**
+     * Limit the resources taken by merges, so they don't hurt the latency of searches running at the same time.
+     * Merges run on a single thread of minimal priority in any case. Unlimited by default.
+     * @param bytesPerSecond The maximal rate of posting list bytes merged, or 0 for no limit
+     * @param cpuFraction The maximal fraction of the time the merging thread is working, in (0, 1]
+     */
+    public void setMergeThrottle(long bytesPerSecond, double cpuFraction) {
+        this.mergeBytesPerSecond = bytesPerSecond;
+        this.mergeCpuFraction = cpuFraction;
+    }
 
     /**
      * Given product review data, creates an on disk index
@@ -30,10 +132,41 @@ public class IndexWriter{
      *            created.
      */
     public void write(String inputFile, String dir) {
+        synchronized (appendLock) {
+            waitForMerges();
+            File dirFile = new File(dir);
+            if (dirFile.exists()) {
+                removeFiles(dir);
+            }
+            append(inputFile, dir);
+        }
+    }
+
+    /**
+     * Add the reviews of the given file to the on disk index in dir, as a new segment.
+     * The new reviews get the ids following the ones already indexed, and the existing segments are left as they are,
+     * so the cost is proportional to the new data. If the directory holds no index, a new one is created.
+     * Once the segment is added, merges chosen by the merge policy are started in the background.
+     * Appends by several threads run one at a time, while merges go on meanwhile.
+     * @param inputFile The path to the file containing the new review data.
+     * @param dir The directory of the index.
+     */
+    public void append(String inputFile, String dir) {
+        synchronized (appendLock) {
+            appendSegment(inputFile, dir);
+            lastMerge = merger.submit(() -> runMerges(dir, false));
+        }
+    }
+
+    /**
+     * Index the reviews of the given file as a new segment, and add it to the manifest. Must be called holding the
+     * append lock, so no other segment is added between reading the number of reviews and adding this segment.
+     * @param inputFile The path to the file containing the new review data.
+     * @param dir The directory of the index.
+     */
+    private void appendSegment(String inputFile, String dir) {
         File dirFile = new File(dir);
-        if (dirFile.exists()) {
-            removeFiles(dir);
-        } else {  // Create it
+        if (!dirFile.exists()) {  // Create it
             try{
                 dirFile.mkdir();
             }
@@ -43,52 +176,176 @@ public class IndexWriter{
             }
         }
 
+        try {
+            String segmentName;
+            int firstReviewId;
+            synchronized (manifestLock) {  // Reserve the segment's name
+                Segments segments = Segments.read(dir);
+                segmentName = segments.newSegmentName();
+                firstReviewId = segments.getNumOfReviews() + 1;
+                segments.write(dir);
+            }
+
+            String segmentDir = dir + File.separator + segmentName;
+            new File(segmentDir).mkdir();
+            int numOfReviews = writeSegment(inputFile, segmentDir, firstReviewId);
+            if (numOfReviews == 0) {
+                removeIndex(segmentDir);
+                return;
+            }
+
+            // Merges running meanwhile don't change the number of reviews, so firstReviewId still follows the others
+            synchronized (manifestLock) {
+                Segments segments = Segments.read(dir);
+                segments.add(segmentName, firstReviewId, numOfReviews);
+                segments.write(dir);
+            }
+        } catch(IOException e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Merge all segments of the index in dir into a single segment, after the merges running in the background are
+     * done. Returns once the merged segment is published.
+     * @param dir The directory of the index.
+     */
+    public void merge(String dir) {
+        synchronized (appendLock) {
+            waitForMerges();
+            runMerges(dir, true);
+        }
+    }
+
+    /**
+     * Wait for the merges submitted to the background so far to finish. The writer may be used for appends afterwards.
+     */
+    public void waitForMerges() {
+        Future<?> last;
+        synchronized (appendLock) {
+            last = lastMerge;
+        }
+        if (last == null) {
+            return;
+        }
+        try {
+            last.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            System.err.println(e.getCause().getMessage());
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Do merges until there's nothing left to merge.
+     * Every merge writes a new segment from the merged ones and then publishes it by replacing the manifest, so
+     * readers opened before see the old segments and readers opened after see the new one. The merged segments are
+     * deleted once the new one is published, so readers opened before a merge should be reopened.
+     * @param dir The directory of the index
+     * @param full Indicates if all segments should be merged into one, or only the merges of the merge policy done
+     */
+    private void runMerges(String dir, boolean full) {
+        MergePolicy policy = new MergePolicy(mergeFactor, minSegmentReviews);
+        try {
+            while (true) {
+                ArrayList<String> names = new ArrayList<>();
+                ArrayList<Integer> firstReviewIds = new ArrayList<>();
+                String mergedName;
+                synchronized (manifestLock) {
+                    Segments segments = Segments.read(dir);
+                    int[] range = full ? policy.findFullMerge(segments) : policy.findMerge(segments);
+                    if (range == null) {
+                        return;
+                    }
+                    for (int i = range[0]; i < range[1]; ++i) {
+                        names.add(segments.getName(i));
+                        firstReviewIds.add(segments.getFirstReviewId(i));
+                    }
+                    mergedName = segments.newSegmentName();
+                    segments.write(dir);
+                }
+
+                ArrayList<Segment> toMerge = new ArrayList<>();
+                for (int i = 0; i < names.size(); ++i) {
+                    toMerge.add(new Segment(dir + File.separator + names.get(i), firstReviewIds.get(i)));
+                }
+                String mergedDir = dir + File.separator + mergedName;
+                new File(mergedDir).mkdir();
+                Throttle throttle = new Throttle(mergeBytesPerSecond, mergeCpuFraction);
+                new SegmentMerger(throttle, hashProductIds, impactOrdered).merge(toMerge, mergedDir);
+
+                synchronized (manifestLock) {
+                    Segments segments = Segments.read(dir);
+                    int from = segments.indexOf(names.get(0));
+                    segments.replace(from, from + names.size(), mergedName);
+                    segments.write(dir);
+                }
+                for (String name: names) {
+                    removeIndex(dir + File.separator + name);
+                }
+            }
+        } catch(IOException e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Index the reviews of the given file as a single segment.
+     * @param inputFile The path to the file containing the review data
+     * @param dir The directory of the segment
+     * @param firstReviewId The id of the first review in the file
+     * @return The number of reviews indexed
+     */
+    private int writeSegment(String inputFile, String dir, int firstReviewId) {
         String sortedTokensFilePath = dir + File.separator + tokensFileName + sortedIndicator;
         String sortedProductsFilePath = dir + File.separator + productsFileName + sortedIndicator;
 
+        /* A single pass over the input collects the review data and writes the sorter's temp files */
+        String tmpDirName = createTempDir(dir);
         ReviewsParser parser = new ReviewsParser();
-        parser.parseFile(inputFile);
+        Sorter sorter = new Sorter(tmpDirName, compressTempFiles, numOfThreads, memoryBudget, firstReviewId);
+        parser.parseFile(inputFile, sorter);
+        int numOfReviews = parser.getNumOfReviews();
+        if (numOfReviews == 0) {
+            removeIndex(tmpDirName);
+            return 0;
+        }
 
         ReviewData rd = new ReviewData(parser.getProductIds(), parser.getReviewHelpfulnessNumerator(),
                 parser.getReviewHelpfulnessDenominator(), parser.getReviewScore(),
-                parser.getTokensPerReview(), parser.getNumOfReviews());
+                parser.getTokensPerReview(), numOfReviews);
 
-        try (ObjectOutputStream reviewDataWriter = new ObjectOutputStream(
-                new FileOutputStream(dir + File.separator + reviewDataFileName))) {
-            reviewDataWriter.writeObject(rd);
-        } catch(IOException e) {
-            System.err.println(e.getMessage());
-            System.exit(1);
-        }
-        rd.clear();
         parser.clear();
 
-        String tmpDirName = createTempDir(dir);
-        Sorter sorter = new Sorter(new ArrayList<>(parser.getTokenSet()),
-                                   new ArrayList<>(parser.getProductIdSet()),
-                                   tmpDirName);
-        sorter.sort(inputFile, sortedTokensFilePath, sortedProductsFilePath);
+        sorter.sort(sortedTokensFilePath, sortedProductsFilePath);
         removeIndex(tmpDirName);
 
 
-        Dictionary tokenDict = buildDictionary(parser.getNumOfTokens(), sortedTokensFilePath,
+        Dictionary tokenDict = buildDictionary(sorter.getNumOfTokens(), sortedTokensFilePath,
                 false, dir, sorter.getTokensArray());
-        Dictionary productDict = buildDictionary(parser.getNumOfproducts(), sortedProductsFilePath,
+        Dictionary productDict = buildDictionary(sorter.getNumOfProducts(), sortedProductsFilePath,
                 true, dir, sorter.getProductIdsArray());
+        if (hashProductIds) {
+            productDict.buildHash();
+        }
+        /* The review data keeps the reviews' products as ordinals of the product dictionary */
+        rd.resolveProducts(productDict);
 
         try {
             /* Write the new files */
-            ObjectOutputStream tokenDictWriter = new ObjectOutputStream(new FileOutputStream(dir + File.separator + tokenDictFileName));
-            tokenDictWriter.writeObject(tokenDict);
-            tokenDictWriter.close();
-
-            ObjectOutputStream productDictWriter = new ObjectOutputStream(new FileOutputStream(dir + File.separator + productDictFileName));
-            productDictWriter.writeObject(productDict);
-            productDictWriter.close();
+            rd.write(dir + File.separator + reviewDataFileName);
+            tokenDict.write(dir + File.separator + tokenDictFileName);
+            productDict.write(dir + File.separator + productDictFileName);
         } catch(IOException e) {
             System.err.println(e.getMessage());
             System.exit(1);
         }
+        rd.clear();
+        return numOfReviews;
     }
 
     private String createTempDir(String dir) {
@@ -126,15 +383,25 @@ public class IndexWriter{
     }
 
     /**
-     * Delete all index files (and only the files).
+     * Delete all index files (and only the files), including every segment directory.
      * @param dir The directory to remove the index from.
      */
     private void removeFiles(String dir) {
+        String[] entries = new File(dir).list();
+        if (entries != null) {
+            for (String s: entries) {
+                if (s.startsWith(segmentDirPrefix)) {
+                    removeIndex(dir + File.separator + s);
+                }
+            }
+        }
+        deleteFile(dir, segmentsFileName);
         deleteFile(dir, tokenDictFileName);
         deleteFile(dir, productDictFileName);
         deleteFile(dir, reviewDataFileName);
         deleteFile(dir, productPostingListFileName);
         deleteFile(dir, tokenPostingListFileName);
+        deleteFile(dir, tokenImpactListFileName);
     }
 
     /**
@@ -160,7 +427,7 @@ public class IndexWriter{
      */
     private Dictionary buildDictionary(int numOfTerms, String out, Boolean isProduct, String dir,
                                        ArrayList<String> mapping) {
-        Dictionary dict = new Dictionary(numOfTerms, out, isProduct, dir, mapping);
+        Dictionary dict = new Dictionary(numOfTerms, out, isProduct, dir, mapping, impactOrdered);
         /* Delete sorted */
         try {
             Files.deleteIfExists(Paths.get(out));
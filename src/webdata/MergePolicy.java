@@ -0,0 +1,64 @@
+package webdata;
+
+/**
+ * A log structured merge policy. Every segment is assigned a level by it's number of reviews, where a level holds
+ * segments up to mergeFactor times larger than the level below it. Whenever mergeFactor adjacent segments share a level
+ * they are merged into a single segment of the next level, so an index of n reviews has O(log n) segments and every
+ * review is merged O(log n) times.
+ * Only adjacent segments are merged, so the segments keep holding consecutive ranges of reviews.
+ */
+class MergePolicy {
+
+    private int mergeFactor;
+    private int minSegmentReviews;
+
+    /**
+     * Constructor
+     * @param mergeFactor The number of segments merged at once, at least 2
+     * @param minSegmentReviews Segments smaller than this are all on the lowest level
+     */
+    MergePolicy(int mergeFactor, int minSegmentReviews) {
+        this.mergeFactor = Math.max(2, mergeFactor);
+        this.minSegmentReviews = Math.max(1, minSegmentReviews);
+    }
+
+    /**
+     * Return the level of a segment with the given number of reviews
+     */
+    private int level(int numOfReviews) {
+        int level = 0;
+        for (long size = (long) minSegmentReviews * mergeFactor; numOfReviews >= size; size *= mergeFactor) {
+            ++level;
+        }
+        return level;
+    }
+
+    /**
+     * Find the next merge to do, which is the oldest range of mergeFactor adjacent segments on the same level.
+     * @param segments The segments of the index
+     * @return The index of the first segment to merge and the index after the last, or null if nothing should be
+     *         merged
+     */
+    int[] findMerge(Segments segments) {
+        int runStart = 0;
+        for (int i = 1; i <= segments.size(); ++i) {
+            if (i == segments.size() ||
+                level(segments.getNumOfReviews(i)) != level(segments.getNumOfReviews(runStart))) {
+                if (i - runStart >= mergeFactor) {
+                    return new int[] {runStart, runStart + mergeFactor};
+                }
+                runStart = i;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Find a merge of all segments into one.
+     * @param segments The segments of the index
+     * @return The range of all segments, or null if there is at most one segment
+     */
+    int[] findFullMerge(Segments segments) {
+        return (segments.size() > 1) ? new int[] {0, segments.size()} : null;
+    }
+}
@@ -1,103 +1,219 @@
 package webdata;
 
+import webdata.utils.IndexFile;
+import webdata.utils.PackedInts;
 import webdata.utils.Utils;
-import java.io.Serializable;
+
+import java.io.IOException;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
 import java.util.ArrayList;
+import java.util.List;
 
 /**
- * An object representing the data for the reviews
+ * An object representing the data for the reviews, as a store of fixed width columns, one per attribute.
+ * The product of a review is kept as it's ordinal in the segment's product dictionary, and the other attributes are
+ * bit packed to the number of bits of their largest value. The data is written as an index file, which is mapped and
+ * read in place when it's opened.
  */
-class ReviewData implements Serializable {
-    /* A String with all product IDs concatenated */
-    private String productId;
+class ReviewData {
+
+    private static final int INDEX_FILE_KIND = 2;
 
-    /* The length of a single product ID */
-    private byte productIdLen;
+    /* The ordinal of every review's product in the product dictionary */
+    private IntBuffer productOrdinals;
 
-    /* Array holding the numerator part of the review's helpfulness */
-    private short[] reviewHelpfulnessNumerator;
+    /* The numerator part of the review's helpfulness */
+    private PackedInts reviewHelpfulnessNumerator;
 
-    /* Array holding the denominator part of the review's helpfulness */
-    private short[] reviewHelpfulnessDenominator;
+    /* The denominator part of the review's helpfulness */
+    private PackedInts reviewHelpfulnessDenominator;
 
-    /* Array holding the review scores */
-    private byte[] reviewScore;
+    /* The review scores */
+    private PackedInts reviewScore;
 
-    /* Array holding the number of tokens per review */
-    private short[] tokensPerReview;
+    /* The number of tokens per review */
+    private PackedInts tokensPerReview;
 
     /* The total number of reviews */
     private int numOfReviews;
 
+    /* The total number of tokens in the reviews */
+    private long totalTokens;
+
+    /* All product IDs concatenated, kept until their ordinals are found */
+    private String productIds;
+
     /**
-     * Construct the review data object
-     * @param productId String representing all product IDs concatenated
+     * Construct the review data object. The products of the reviews must be resolved to their ordinals before it's
+     * written. A column shorter than the number of reviews, as when some reviews lack the field, is padded with
+     * zeros.
+     * @param productIds String representing all product IDs concatenated
      * @param reviewHelpfulnessN ArrayList of Shorts representing all helpfulness Numerator data
      * @param reviewHelpfulnessD ArrayList of Shorts representing all helpfulness Denominator data
      * @param reviewScore ArrayList of Strings representing all review scores
      * @param tokensPerReview ArrayList of Strings representing the number of tokens per review
      * @param numOfReviews The total number of reviews
      */
-    ReviewData (String productId, ArrayList<Short> reviewHelpfulnessN, ArrayList<Short> reviewHelpfulnessD,
+    ReviewData (String productIds, ArrayList<Short> reviewHelpfulnessN, ArrayList<Short> reviewHelpfulnessD,
                 ArrayList<Byte> reviewScore, ArrayList<Short> tokensPerReview, int numOfReviews) {
-        productIdLen = (byte) (productId.length() / numOfReviews);
-        this.productId = productId;
+        this.productIds = productIds;
+        this.reviewHelpfulnessNumerator = new PackedInts(Utils.toIntArray(reviewHelpfulnessN, numOfReviews), numOfReviews);
+        this.reviewHelpfulnessDenominator = new PackedInts(Utils.toIntArray(reviewHelpfulnessD, numOfReviews), numOfReviews);
+        this.reviewScore = new PackedInts(Utils.toIntArray(reviewScore, numOfReviews), numOfReviews);
+        int[] tokens = Utils.toIntArray(tokensPerReview, numOfReviews);
+        this.tokensPerReview = new PackedInts(tokens, numOfReviews);
+        this.numOfReviews = numOfReviews;
+        this.totalTokens = sum(tokens, numOfReviews);
+    }
 
-        this.reviewHelpfulnessNumerator = new short[numOfReviews];
-        this.reviewHelpfulnessDenominator = new short[numOfReviews];
-        Utils.toPrimitiveArray(reviewHelpfulnessN, this.reviewHelpfulnessNumerator);
-        Utils.toPrimitiveArray(reviewHelpfulnessD, this.reviewHelpfulnessDenominator);
+    /**
+     * Construct the review data of consecutive parts of the reviews, one after the other.
+     * @param parts The review data of the parts, in order
+     * @param productOrdinalMaps For every part, the new ordinal of every product ordinal of the part
+     */
+    ReviewData (List<ReviewData> parts, List<int[]> productOrdinalMaps) {
+        for (ReviewData part: parts) {
+            numOfReviews += part.numOfReviews;
+        }
+        int[] ordinals = new int[numOfReviews];
+        int[] numerators = new int[numOfReviews];
+        int[] denominators = new int[numOfReviews];
+        int[] scores = new int[numOfReviews];
+        int[] tokens = new int[numOfReviews];
+        int start = 0;
+        for (int p = 0; p < parts.size(); ++p) {
+            ReviewData part = parts.get(p);
+            int[] ordinalMap = productOrdinalMaps.get(p);
+            for (int i = 0; i < part.numOfReviews; ++i) {
+                ordinals[start + i] = ordinalMap[part.getProductOrdinal(i)];
+            }
+            part.reviewHelpfulnessNumerator.getAll(numerators, start);
+            part.reviewHelpfulnessDenominator.getAll(denominators, start);
+            part.reviewScore.getAll(scores, start);
+            part.tokensPerReview.getAll(tokens, start);
+            start += part.numOfReviews;
+        }
+        productOrdinals = IntBuffer.wrap(ordinals);
+        reviewHelpfulnessNumerator = new PackedInts(numerators, numOfReviews);
+        reviewHelpfulnessDenominator = new PackedInts(denominators, numOfReviews);
+        reviewScore = new PackedInts(scores, numOfReviews);
+        tokensPerReview = new PackedInts(tokens, numOfReviews);
+        totalTokens = sum(tokens, numOfReviews);
+    }
 
-        this.reviewScore = new byte[numOfReviews];
-        Utils.toPrimitiveArray(reviewScore, this.reviewScore);
+    /**
+     * Return the sum of the first n values
+     */
+    private static long sum(int[] values, int n) {
+        long sum = 0;
+        for (int i = 0; i < n; ++i) {
+            sum += values[i];
+        }
+        return sum;
+    }
 
-        this.tokensPerReview = new short[numOfReviews];
-        Utils.toPrimitiveArray(tokensPerReview, this.tokensPerReview);
-        this.numOfReviews = numOfReviews;
+    /**
+     * Construct the review data opened from an index file.
+     * @param file The index file
+     */
+    private ReviewData (IndexFile file) {
+        LongBuffer scalars = file.longs(0);
+        numOfReviews = (int) scalars.get(0);
+        totalTokens = scalars.get(1);
+        productOrdinals = file.ints(1);
+        reviewHelpfulnessNumerator = new PackedInts(file, 2);
+        reviewHelpfulnessDenominator = new PackedInts(file, 4);
+        reviewScore = new PackedInts(file, 6);
+        tokensPerReview = new PackedInts(file, 8);
+    }
+
+    /**
+     * Open review data written by write, mapping it's file to be used in place.
+     * @param file The path of the file
+     * @return The review data
+     * @throws IOException
+     */
+    static ReviewData open(String file) throws IOException {
+        return new ReviewData(new IndexFile(file, INDEX_FILE_KIND));
+    }
+
+    /**
+     * Find the ordinals of the reviews' products in the segment's product dictionary.
+     * @param productDict The product dictionary
+     */
+    void resolveProducts(Dictionary productDict) {
+        int productIdLen = productIds.length() / numOfReviews;
+        int[] ordinals = new int[numOfReviews];
+        for (int i = 0; i < numOfReviews; ++i) {
+            ordinals[i] = productDict.searchTerm(productIds.substring(i * productIdLen, (i + 1) * productIdLen));
+        }
+        productOrdinals = IntBuffer.wrap(ordinals);
+        productIds = null;
+    }
+
+    /**
+     * Write the review data as an index file, to be opened in place by open.
+     * @param file The path of the file
+     * @throws IOException
+     */
+    void write(String file) throws IOException {
+        IndexFile.Writer writer = new IndexFile.Writer(INDEX_FILE_KIND);
+        writer.add(LongBuffer.wrap(new long[] {numOfReviews, totalTokens}));
+        writer.add(productOrdinals);
+        reviewHelpfulnessNumerator.write(writer);
+        reviewHelpfulnessDenominator.write(writer);
+        reviewScore.write(writer);
+        tokensPerReview.write(writer);
+        writer.write(file);
     }
 
     /**
      * Empty the data structures stored in this instance.
      */
     void clear() {
-        this.productId = "";
-        this.productIdLen = 0;
+        this.productOrdinals = null;
+        this.productIds = null;
         this.reviewHelpfulnessNumerator = null;
         this.reviewHelpfulnessDenominator = null;
         this.reviewScore = null;
         this.tokensPerReview = null;
         this.numOfReviews = 0;
+        this.totalTokens = 0;
     }
 
     /**
      * Return the score for the requested review i
      */
-    byte getScore(int i) { return reviewScore[i]; }
+    int getScore(int i) { return reviewScore.get(i); }
 
     /**
      * Return the helpfulness numerator for the requested review i
      */
-    short getHelpfulnessNumerator(int i) { return reviewHelpfulnessNumerator[i]; }
+    int getHelpfulnessNumerator(int i) { return reviewHelpfulnessNumerator.get(i); }
 
     /**
      * Return the helpfulness denominator for the requested review i
      */
-    short getHelpfulnessDenominator(int i) { return reviewHelpfulnessDenominator[i]; }
+    int getHelpfulnessDenominator(int i) { return reviewHelpfulnessDenominator.get(i); }
 
     /**
-     * Return review i's productID
+     * Return the ordinal of review i's product in the product dictionary
      */
-    String getReviewProductId(int i) {
-        return productId.substring(i * productIdLen, (i * productIdLen) + productIdLen);
-    }
+    int getProductOrdinal(int i) { return productOrdinals.get(i); }
 
     /**
      * Return the number of tokens in review i
      */
-    short getTokensPerReview(int i) { return tokensPerReview[i]; }
+    int getTokensPerReview(int i) { return tokensPerReview.get(i); }
 
     /**
      * Return the number of reviews
      */
     int getNumOfReviews() { return numOfReviews; }
+
+    /**
+     * Return the total number of tokens in the reviews
+     */
+    long getTotalTokens() { return totalTokens; }
 }
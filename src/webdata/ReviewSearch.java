@@ -1,17 +1,26 @@
 package webdata;
 
 import com.sun.source.tree.Tree;
-import webdata.utils.ProductWithScore;
-import webdata.utils.ReviewWithScore;
+import webdata.utils.ImpactList;
+import webdata.utils.PostingsIterator;
+import webdata.utils.ResultCache;
+import webdata.utils.TopKCollector;
 import webdata.utils.Utils;
 
 import java.util.*;
+import java.util.function.Supplier;
 
 public class ReviewSearch {
 
     private static final int C = 30;
+    private static final double BOUND_SLACK = 1e-9;
+    private static final int DEFAULT_CACHE_SIZE = 1000;
     private IndexReader ir;
 
+    /* The results of recent queries, keyed by the search, it's parameters and the histogram of the query */
+    private ResultCache<String, List<Integer>> reviewCache = new ResultCache<>(DEFAULT_CACHE_SIZE);
+    private ResultCache<String, List<String>> productCache = new ResultCache<>(DEFAULT_CACHE_SIZE);
+
     /**
      * Constructor
      */
@@ -19,6 +28,54 @@ public class ReviewSearch {
         ir = iReader;
     }
 
+    /**
+     * Search another index, such as the index reloaded after it was appended to. The cached results are dropped.
+     * @param iReader The reader of the index
+     */
+    public void setIndexReader(IndexReader iReader) {
+        ir = iReader;
+        reviewCache.clear();
+        productCache.clear();
+    }
+
+    /**
+     * Set the number of recent results cached for the searches of reviews and for the product searches, evicting the
+     * least recently used results. Defaults to 1000 of each.
+     * @param maxEntries The number of results of each kind, or 0 to cache nothing
+     */
+    public void setCacheSize(int maxEntries) {
+        reviewCache = new ResultCache<>(maxEntries);
+        productCache = new ResultCache<>(maxEntries);
+    }
+
+    /**
+     * @return The number of searches answered from the cache
+     */
+    public long getCacheHits() {
+        return reviewCache.getHits() + productCache.getHits();
+    }
+
+    /**
+     * @return The number of searches not answered from the cache
+     */
+    public long getCacheMisses() {
+        return reviewCache.getMisses() + productCache.getMisses();
+    }
+
+    /**
+     * Return the cached result of a search of reviews, running the search if it's not cached.
+     * @param key The key of the search
+     * @param search Runs the search
+     */
+    private Enumeration<Integer> cachedReviews(String key, Supplier<Enumeration<Integer>> search) {
+        List<Integer> result = reviewCache.get(key);
+        if (result == null) {
+            result = Collections.list(search.get());
+            reviewCache.put(key, result);
+        }
+        return Collections.enumeration(result);
+    }
+
     /* -------------------------------- Vector Space Search ------------------------------------ */
 
     private double[] calcLtf(double[] termFrequencies) {
@@ -44,29 +101,6 @@ public class ReviewSearch {
         return hist;
     }
 
-    private TreeMap<Integer, TreeMap<String, Integer>> getReviews(Set<String> queryTerms) {
-        TreeMap<Integer, TreeMap<String, Integer>> reviews = new TreeMap<>();
-        for (String term: queryTerms) {
-            Enumeration<Integer> termReviewAndFrequencies = ir.getReviewsWithToken(term);
-            while (termReviewAndFrequencies.hasMoreElements()) {
-                int reviewNumber = termReviewAndFrequencies.nextElement();
-                int frequencyInReview = termReviewAndFrequencies.nextElement();
-                TreeMap<String, Integer> curMap;
-                if (reviews.keySet().contains(reviewNumber)) { // If the current review number already exists in the reviews map
-                    curMap = reviews.get(reviewNumber); // Get the currently existing "vector" of this review
-                } else {
-                    curMap = new TreeMap<>(); // Create a "vector" of all available unique query terms
-                    for (String t: queryTerms) {
-                        curMap.put(t, 0);
-                    }
-                }
-                curMap.replace(term, frequencyInReview);
-                reviews.put(reviewNumber, curMap);
-            }
-        }
-        return reviews;
-    }
-
     private double[] computeLTCOfQuery(TreeMap<String, Integer> queryHist) {
         double[] ltf = calcLtf(webdata.utils.Utils.integerCollectionToDoubleArray(queryHist.values()));
         double[] termFrequencies = new double[ltf.length];
@@ -92,13 +126,15 @@ public class ReviewSearch {
         return ltc;
     }
 
-    private double calcReviewScore(double[] freqOfTerms, double[] qqq) {
-        freqOfTerms = calcLtf(freqOfTerms);
-        double score = 0;
-        for (int i = 0; i < qqq.length; ++i) {
-            score += freqOfTerms[i] * qqq[i];
+    /**
+     * Return the smallest current review id of the given posting lists, or NO_MORE_REVIEWS if they're all exhausted.
+     */
+    private int minReviewId(PostingsIterator[] postings) {
+        int min = PostingsIterator.NO_MORE_REVIEWS;
+        for (PostingsIterator list: postings) {
+            min = Math.min(min, list.reviewId());
         }
-        return score;
+        return min;
     }
 
     /**
@@ -108,8 +144,20 @@ public class ReviewSearch {
      * The list should be sorted by the ranking
      */
     public Enumeration<Integer> vectorSpaceSearch(Enumeration<String> query, int k) {
-        // Compute qqq:
-        TreeMap<String, Integer> queryHist = histogramQuery(query);
+        return vectorSpaceSearch(histogramQuery(query), k);
+    }
+
+    /**
+     * Run vectorSpaceSearch for the given histogram of the query, or return it's cached result.
+     */
+    private Enumeration<Integer> vectorSpaceSearch(TreeMap<String, Integer> queryHist, int k) {
+        return cachedReviews("vs " + k + " " + queryHist, () -> lnnSearch(queryVector(queryHist), k));
+    }
+
+    /**
+     * Compute qqq, the ltc weights of the query terms, leaving out the terms of no weight.
+     */
+    private TreeMap<String, Double> queryVector(TreeMap<String, Integer> queryHist) {
         double[] ltc = computeLTCOfQuery(queryHist);
         TreeMap<String, Double> queryVec = new TreeMap<>();
         int i = 0;
@@ -119,103 +167,310 @@ public class ReviewSearch {
             }
             ++i;
         }
+        return queryVec;
+    }
 
-        // Compute ddd:
-        TreeMap<Integer, TreeMap<String, Integer>> reviews = getReviews(queryVec.keySet());
-        ReviewWithScore[] reviewWithScores = new ReviewWithScore[reviews.size()];
-        i = 0;
-        for (Integer review: reviews.keySet()) {
-            double score = calcReviewScore(Utils.integerCollectionToDoubleArray(reviews.get(review).values()),
-                                           Utils.doubleCollectionToDoubleArray(queryVec.values()));
-            ReviewWithScore rws = new ReviewWithScore(review, score);
-            reviewWithScores[i] = rws;
+    /**
+     * Return the k reviews of the highest lnn.ltc scores for the given query vector, sorted by the ranking.
+     */
+    private Enumeration<Integer> lnnSearch(TreeMap<String, Double> queryVec, int k) {
+        // Compute ddd, scoring the reviews of the query terms' posting lists in order of their ids
+        double[] qqq = Utils.doubleCollectionToDoubleArray(queryVec.values());
+        PostingsIterator[] postings = new PostingsIterator[qqq.length];
+        double[] maxScores = new double[qqq.length];
+        int i = 0;
+        for (String term: queryVec.keySet()) {
+            postings[i] = ir.getTokenPostings(term);
+            postings[i].nextDoc();
+            maxScores[i] = (1 + Math.log10(ir.getTokenMaxFrequency(term))) * qqq[i];
             ++i;
         }
-        return getBestReviews(k, reviewWithScores);
+        return getBestReviews(maxScoreSearch(postings, qqq, maxScores, k));
     }
 
+    /**
+     * Find the k reviews of the highest lnn scores, skipping the reviews that can't make it to the top k (MaxScore).
+     * The terms are ordered by the highest score they can add to a review. Once the sum of the highest scores of the
+     * first terms is at most the score of the k'th best review so far, a review holding only these terms can't make
+     * it to the top k, so the candidates are taken from the other, essential, terms alone, and the lists of the first
+     * terms are only advanced to the candidates. A candidate is dropped as soon as the score it has plus the highest
+     * scores of the terms left is at most the k'th best score, and before that, when the highest frequencies of the
+     * blocks it's in bound it's score below the k'th best score, without decoding the frequencies.
+     * A dropped review would have had a score of at most the k'th best score, and as the reviews are visited in order
+     * of their ids, it would have been ranked below the k'th best review, so the results are the same as when all the
+     * reviews are scored. The score of a review is summed in the order of the query terms, as when all are scored.
+     * @param postings The posting lists of the query terms, every one on it's first review
+     * @param qqq The weights of the query terms
+     * @param maxScores The highest score every term can add to a review
+     * @param k The number of reviews to find
+     * @return The collector of the best reviews found
+     */
+    private TopKCollector maxScoreSearch(PostingsIterator[] postings, double[] qqq, double[] maxScores, int k) {
+        int numOfTerms = postings.length;
+        Integer[] byMaxScore = new Integer[numOfTerms];
+        for (int j = 0; j < numOfTerms; ++j) {
+            byMaxScore[j] = j;
+        }
+        Arrays.sort(byMaxScore, Comparator.comparingDouble(j -> maxScores[j]));
+        // The sum of the highest scores of the first terms, up to and including every term
+        double[] sumOfMaxScores = new double[numOfTerms];
+        for (int j = 0; j < numOfTerms; ++j) {
+            sumOfMaxScores[j] = ((j > 0) ? sumOfMaxScores[j - 1] : 0) + maxScores[byMaxScore[j]];
+        }
 
-    /* -------------------------------- Language Model Search ------------------------------------ */
-
+        TopKCollector topK = new TopKCollector(k);
+        double threshold = topK.threshold();
+        int firstEssential = 0;
+        double[] scores = new double[numOfTerms];
+        while (k > 0 && firstEssential < numOfTerms) {
+            int reviewId = PostingsIterator.NO_MORE_REVIEWS;
+            for (int j = firstEssential; j < numOfTerms; ++j) {
+                reviewId = Math.min(reviewId, postings[byMaxScore[j]].reviewId());
+            }
+            if (reviewId == PostingsIterator.NO_MORE_REVIEWS) {
+                break;
+            }
 
-    private double calcMcProb(String token) {
-        return ((double) ir.getTokenCollectionFrequency(token)) / ((double) ir.getTokenSizeOfReviews());
-    }
+            double bound = (firstEssential > 0) ? sumOfMaxScores[firstEssential - 1] : 0;
+            for (int j = firstEssential; j < numOfTerms; ++j) {
+                PostingsIterator list = postings[byMaxScore[j]];
+                if (list.reviewId() == reviewId) {
+                    bound += (1 + Math.log10(list.blockMaxFreq())) * qqq[byMaxScore[j]];
+                }
+            }
+            boolean candidate = mayEnter(bound, threshold);
+            double score = 0;
+            for (int j = firstEssential; j < numOfTerms; ++j) {
+                PostingsIterator list = postings[byMaxScore[j]];
+                if (list.reviewId() == reviewId) {
+                    if (candidate) {
+                        scores[byMaxScore[j]] = (1 + Math.log10(list.freq())) * qqq[byMaxScore[j]];
+                        score += scores[byMaxScore[j]];
+                    }
+                    list.nextDoc();
+                }
+            }
+            for (int j = firstEssential - 1; j >= 0 && candidate; --j) {
+                if (!mayEnter(score + sumOfMaxScores[j], threshold)) {
+                    candidate = false;
+                    break;
+                }
+                PostingsIterator list = postings[byMaxScore[j]];
+                if (list.reviewId() < reviewId) {
+                    list.advance(reviewId);
+                }
+                if (list.reviewId() == reviewId) {
+                    scores[byMaxScore[j]] = (1 + Math.log10(list.freq())) * qqq[byMaxScore[j]];
+                    score += scores[byMaxScore[j]];
+                }
+            }
 
-    private double calcMdProb(String token, int reviewId) {
-        Enumeration<Integer> reviewsWithFrequency = ir.getReviewsWithToken(token);
-        int curReview;
-        double curFrequency;
-        while (reviewsWithFrequency.hasMoreElements()) {
-            curReview = reviewsWithFrequency.nextElement();
-            curFrequency = reviewsWithFrequency.nextElement();
-            if (curReview == reviewId) {
-                return curFrequency / (double) ir.getReviewLength(reviewId);
+            if (candidate) {
+                score = 0;
+                for (int j = 0; j < numOfTerms; ++j) {
+                    score += scores[j];
+                }
+                if (topK.collect(reviewId, score) && topK.isFull()) {
+                    threshold = topK.threshold();
+                    while (firstEssential < numOfTerms && !mayEnter(sumOfMaxScores[firstEssential], threshold)) {
+                        ++firstEssential;
+                    }
+                }
             }
+            Arrays.fill(scores, 0);
         }
-        return 0;
+        return topK;
     }
 
-    private double mixtureModelPerReview(List<String> query, double lambda, int reviewId) {
-        double score = 1;
-        double probabilty;
-        for (String term: query) {
-            probabilty = (lambda * calcMdProb(term, reviewId)) + ((1 - lambda) * calcMcProb(term));
-            score *= probabilty;
+    /**
+     * Check if a review whose score is at most the given bound may have a higher score than the k'th best review.
+     * The bound is relaxed a little, as it's summed in another order than the score.
+     */
+    private static boolean mayEnter(double bound, double threshold) {
+        return bound * (1 + BOUND_SLACK) > threshold;
+    }
+
+
+    /**
+     * Returns a list of the id-s of the k most highly ranked reviews for the given query, using the vector space
+     * ranking function lnn.ltc, processing at most maxPostings postings of the impact ordered posting lists.
+     * The postings are scored a group at a time, from the group of the highest impact (1 + log10(tf)) * qqq of all
+     * the query terms' groups to the lowest, adding to an accumulator per review, so the postings that add the most to
+     * the scores come first. Once maxPostings postings are scored the search stops, and returns the best reviews of
+     * the scores accumulated, which bounds it's latency. Given enough postings all are scored, and the scores are those
+     * of vectorSpaceSearch, up to the rounding of their sums.
+     * An index that isn't impact ordered is searched by vectorSpaceSearch.
+     * The list should be sorted by the ranking
+     */
+    public Enumeration<Integer> impactSearch(Enumeration<String> query, int k, long maxPostings) {
+        TreeMap<String, Integer> queryHist = histogramQuery(query);
+        if (!ir.isImpactOrdered()) {
+            return vectorSpaceSearch(queryHist, k);
         }
-        return score;
+        return cachedReviews("impact " + k + " " + maxPostings + " " + queryHist,
+                             () -> impactSearch(queryVector(queryHist), k, maxPostings));
     }
 
-    private Set<Integer> getRelevantReviews(Set<String> querySet) {
-        Set<Integer> relevantReviews = new HashSet<>();
-        int curReview;
-        for (String term: querySet) {
-            Enumeration<Integer> termPostingList = ir.getReviewsWithToken(term);
-            while (termPostingList.hasMoreElements()) {
-                curReview = termPostingList.nextElement();
-                termPostingList.nextElement();
-                relevantReviews.add(curReview);
+    /**
+     * Run impactSearch for the given query vector.
+     */
+    private Enumeration<Integer> impactSearch(TreeMap<String, Double> queryVec, int k, long maxPostings) {
+
+        // Gather the groups of all the query terms in all the segments, and order them by decreasing impact
+        ArrayList<ImpactList> lists = new ArrayList<>();
+        ArrayList<Double> listWeights = new ArrayList<>();
+        int numOfGroups = 0;
+        for (Map.Entry<String, Double> term: queryVec.entrySet()) {
+            for (ImpactList list: ir.getTokenImpacts(term.getKey())) {
+                lists.add(list);
+                listWeights.add(term.getValue());
+                numOfGroups += list.numOfGroups();
+            }
+        }
+        int[] groupList = new int[numOfGroups];
+        int[] groupIndex = new int[numOfGroups];
+        double[] groupImpact = new double[numOfGroups];
+        Integer[] byImpact = new Integer[numOfGroups];
+        int g = 0;
+        for (int l = 0; l < lists.size(); ++l) {
+            for (int j = 0; j < lists.get(l).numOfGroups(); ++j, ++g) {
+                groupList[g] = l;
+                groupIndex[g] = j;
+                groupImpact[g] = (1 + Math.log10(lists.get(l).frequency(j))) * listWeights.get(l);
+                byImpact[g] = g;
+            }
+        }
+        Arrays.sort(byImpact, (g1, g2) -> Double.compare(groupImpact[g2], groupImpact[g1]));
+
+        // Score the groups, highest impact first, until the budget of postings is spent
+        double[] accumulators = new double[ir.getNumberOfReviews() + 1];
+        int[] touched = new int[1 << 10];
+        int numOfTouched = 0;
+        long numOfPostings = 0;
+        for (int group: byImpact) {
+            PostingsIterator postings = lists.get(groupList[group]).postings(groupIndex[group]);
+            double impact = groupImpact[group];
+            for (int reviewId = postings.nextDoc(); reviewId != PostingsIterator.NO_MORE_REVIEWS &&
+                    numOfPostings < maxPostings; reviewId = postings.nextDoc(), ++numOfPostings) {
+                if (accumulators[reviewId] == 0) {
+                    if (numOfTouched == touched.length) {
+                        touched = Arrays.copyOf(touched, numOfTouched * 2);
+                    }
+                    touched[numOfTouched++] = reviewId;
+                }
+                accumulators[reviewId] += impact;
+            }
+            if (numOfPostings >= maxPostings) {
+                break;
             }
         }
-        return relevantReviews;
+
+        TopKCollector topK = new TopKCollector(k);
+        for (int i = 0; i < numOfTouched; ++i) {
+            topK.collect(touched[i], accumulators[touched[i]]);
+        }
+        return getBestReviews(topK);
     }
 
+
+    /* -------------------------------- Language Model Search ------------------------------------ */
+
+
     /**
      * Returns a list of the id-s of the k most highly ranked reviews for the
      * given query, using the language model ranking function, smoothed using a
      * mixture model with the given value of lambda
      * The list should be sorted by the ranking
+     *
+     * The posting list of every distinct query term is streamed once, and the reviews are scored in order of their
+     * ids. The score of a review is it's query likelihood, the product of the mixture probabilities of the query
+     * terms, multiplied in the order of the query so equal likelihoods round to equal scores and are ranked by id.
+     * If the product could underflow, the score is the log of the likelihood instead, a sum over the distinct terms of
+     * the log of the term's mixture probability times the number of times the term is in the query.
+     * A term that isn't in the review contributes it's background (1 - lambda) * P(t|Mc) alone, which is computed
+     * once per query instead of once per review.
      */
     public Enumeration<Integer> languageModelSearch(Enumeration<String> query, double lambda, int k) {
-        ArrayList<String> queryList = new ArrayList<>();
+        List<String> queryList = new ArrayList<>();
         while (query.hasMoreElements()) {
             queryList.add(query.nextElement().toLowerCase());
         }
-        Set<String> querySet = new HashSet<>(queryList);
-        Set<Integer> relevantReviews = getRelevantReviews(querySet);
+        return cachedReviews("lm " + lambda + " " + k + " " + queryList,
+                             () -> languageModelSearch(queryList, lambda, k));
+    }
 
-        ReviewWithScore[] reviewWithScores = new ReviewWithScore[relevantReviews.size()];
+    /**
+     * Run languageModelSearch for the given lower cased query terms, in the order of the query.
+     */
+    private Enumeration<Integer> languageModelSearch(List<String> queryList, double lambda, int k) {
+        TreeMap<String, Integer> queryHist = histogramQuery(Collections.enumeration(queryList));
+        int numOfTerms = queryHist.size();
+        PostingsIterator[] postings = new PostingsIterator[numOfTerms];
+        double[] queryCounts = new double[numOfTerms];
+        double[] smoothedMc = new double[numOfTerms];
+        double[] logBackground = new double[numOfTerms];
+        double tokenSizeOfReviews = ir.getTokenSizeOfReviews();
+        HashMap<String, Integer> termIndexes = new HashMap<>();
         int i = 0;
-        double score;
-        for (int reviewId: relevantReviews) {
-            score = mixtureModelPerReview(queryList, lambda, reviewId);
-            ReviewWithScore rws = new ReviewWithScore(reviewId, score);
-            reviewWithScores[i] = rws;
+        for (Map.Entry<String, Integer> term: queryHist.entrySet()) {
+            postings[i] = ir.getTokenPostings(term.getKey());
+            postings[i].nextDoc();
+            queryCounts[i] = term.getValue();
+            smoothedMc[i] = (1 - lambda) * (ir.getTokenCollectionFrequency(term.getKey()) / tokenSizeOfReviews);
+            logBackground[i] = Math.log(smoothedMc[i]);
+            termIndexes.put(term.getKey(), i);
             ++i;
         }
-        return getBestReviews(k, reviewWithScores);
 
+        // The distinct term of every query term, and the smallest product of all, of a review with none of the terms
+        int[] queryTerms = new int[queryList.size()];
+        double smallestProduct = 1;
+        for (int j = 0; j < queryTerms.length; ++j) {
+            queryTerms[j] = termIndexes.get(queryList.get(j));
+            smallestProduct *= smoothedMc[queryTerms[j]];
+        }
+        boolean inLogSpace = smallestProduct < Double.MIN_NORMAL;
+
+        // Score the reviews containing any of the terms, in order of their ids
+        TopKCollector topK = new TopKCollector(k);
+        double[] probabilities = new double[numOfTerms];
+        for (int reviewId = minReviewId(postings); reviewId != PostingsIterator.NO_MORE_REVIEWS;
+             reviewId = minReviewId(postings)) {
+            double reviewLength = ir.getReviewLength(reviewId);
+            double score = inLogSpace ? 0 : 1;
+            for (i = 0; i < numOfTerms; ++i) {
+                if (postings[i].reviewId() == reviewId) {
+                    double mdProb = postings[i].freq() / reviewLength;
+                    probabilities[i] = (lambda * mdProb) + smoothedMc[i];
+                    if (inLogSpace) {
+                        score += queryCounts[i] * Math.log(probabilities[i]);
+                    }
+                    postings[i].nextDoc();
+                } else {
+                    probabilities[i] = smoothedMc[i];
+                    if (inLogSpace) {
+                        score += queryCounts[i] * logBackground[i];
+                    }
+                }
+            }
+            if (!inLogSpace) {
+                for (int term: queryTerms) {
+                    score *= probabilities[term];
+                }
+            }
+            topK.collect(reviewId, score);
+        }
+        return getBestReviews(topK);
     }
 
-    private Enumeration<Integer> getBestReviews(int k, ReviewWithScore[] reviewWithScores) {
-        Arrays.sort(reviewWithScores);
-        int numOfBestResults = Math.min(k, reviewWithScores.length);
-        Integer[] bestResults = new Integer[numOfBestResults];
-        for (int i = 0; i < bestResults.length; ++i) {
-            bestResults[i] = reviewWithScores[i].getReviewNumber();
+    /**
+     * Return the reviews collected, best first.
+     */
+    private Enumeration<Integer> getBestReviews(TopKCollector topK) {
+        Vector<Integer> bestReviews = new Vector<>(topK.size());
+        for (int reviewId: topK.topIds()) {
+            bestReviews.add(reviewId);
         }
-
-        Vector<Integer> bestReviews = new Vector<>(Arrays.asList(bestResults));
         return bestReviews.elements();
     }
 
@@ -245,8 +500,22 @@ public class ReviewSearch {
      * 9.	Return top k.
      */
     public Collection<String> productSearch(Enumeration<String> query, int k) {
+        TreeMap<String, Integer> queryHist = histogramQuery(query);
+        String key = "ps " + k + " " + queryHist;
+        List<String> result = productCache.get(key);
+        if (result == null) {
+            result = productSearch(queryHist, k);
+            productCache.put(key, result);
+        }
+        return new ArrayList<>(result);
+    }
+
+    /**
+     * Run productSearch for the given histogram of the query.
+     */
+    private ArrayList<String> productSearch(TreeMap<String, Integer> queryHist, int k) {
         // Find all relevant reviews according to the query
-        Enumeration<Integer> allRelevantReviews = vectorSpaceSearch(query, C);
+        Enumeration<Integer> allRelevantReviews = vectorSpaceSearch(queryHist, C);
 
         List<Integer> allReviewsList = Collections.list(allRelevantReviews); // Convert to list
 
@@ -273,15 +542,27 @@ public class ReviewSearch {
         // Iterate over all reviews of all products
         HashMap<String, Double> productNewScores = new HashMap<>();
         double sumOfScores = 0;
+        int[] reviewIds = new int[64], scores = new int[64], numerators = new int[64], denominators = new int[64];
         for (String productId: productWeightMap.keySet()) {
-            Enumeration<Integer> productReviews = ir.getProductReviews(productId);
+            PostingsIterator productReviews = ir.getProductPostings(productId);
+            int n = 0;
+            for (int reviewId = productReviews.nextDoc(); reviewId != PostingsIterator.NO_MORE_REVIEWS;
+                 reviewId = productReviews.nextDoc()) {
+                if (n == reviewIds.length) {
+                    reviewIds = Arrays.copyOf(reviewIds, n * 2);
+                    scores = new int[n * 2];
+                    numerators = new int[n * 2];
+                    denominators = new int[n * 2];
+                }
+                reviewIds[n++] = reviewId;
+            }
+            ir.getReviewScores(reviewIds, n, scores, numerators, denominators);
 
             ArrayList<Double> newReviewScores = new ArrayList<>();
-            while (productReviews.hasMoreElements()) {
-                int reviewId = productReviews.nextElement();
-                int score = ir.getReviewScore(reviewId);
-                int helpfulnessNumerator = ir.getReviewHelpfulnessNumerator(reviewId);
-                int helpfulnessDenominator = ir.getReviewHelpfulnessDenominator(reviewId);
+            for (int i = 0; i < n; ++i) {
+                int score = scores[i];
+                int helpfulnessNumerator = numerators[i];
+                int helpfulnessDenominator = denominators[i];
                 if (helpfulnessNumerator > helpfulnessDenominator) {
                     continue;
                 }
@@ -311,22 +592,20 @@ public class ReviewSearch {
             sumOfScores += newScore;
         }
 
-        // Calculate final weight and normalize
-        ProductWithScore[] productWithScores = new ProductWithScore[productWeightMap.size()];
-        int i = 0;
-        for (String productId: productWeightMap.keySet()) {
-            double normalizedScore = productNewScores.get(productId) / sumOfScores;
-            double curWeight = productWeightMap.get(productId);
-            productWithScores[i] = new ProductWithScore(productId, (curWeight + normalizedScore) / 2);
-            ++i;
+        // Calculate final weight and normalize. The products are collected by their index in sorted order, so ties are
+        // broken by product id
+        String[] productIds = new TreeSet<>(productWeightMap.keySet()).toArray(new String[0]);
+        TopKCollector topK = new TopKCollector(k);
+        for (int i = 0; i < productIds.length; ++i) {
+            double normalizedScore = productNewScores.get(productIds[i]) / sumOfScores;
+            double curWeight = productWeightMap.get(productIds[i]);
+            topK.collect(i, (curWeight + normalizedScore) / 2);
         }
 
-        // Sort by values and return top k
-        Arrays.sort(productWithScores);
-        int numOfBestResults = Math.min(k, productWithScores.length);
+        // Return top k
         ArrayList<String> bestResults = new ArrayList<>();
-        for (i = 0; i < numOfBestResults; ++i) {
-            bestResults.add(productWithScores[i].getProductId());
+        for (int i: topK.topIds()) {
+            bestResults.add(productIds[i]);
         }
 
         return bestResults;
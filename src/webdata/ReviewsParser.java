@@ -1,18 +1,21 @@
 package webdata;
 
 import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
-import java.util.HashSet;
 
 /**
  * A parser for a file of reviews.
+ * The parser collects the review metadata and hands every review's product ID and text to a Sorter, so the input
+ * is read and tokenized only once. The number of tokens per review is reported back by the Sorter.
  */
 public class ReviewsParser {
 
     /* Data */
-    private HashSet<String> tokenSet = new HashSet<>();
-    private HashSet<String> productIdSet = new HashSet<>();
-
     private ArrayList<Byte> reviewScore = new ArrayList<>();
     private ArrayList<Short> reviewHelpfulnessNumerator = new ArrayList<>();
     private ArrayList<Short> reviewHelpfulnessDenominator = new ArrayList<>();
@@ -20,8 +23,17 @@ public class ReviewsParser {
     private int numOfReviews = 0;
     private StringBuilder productIds = new StringBuilder();
 
-    /* String constants */
-    private final String SPLIT_TOKENS_REGEX = "[^A-Za-z0-9]+";
+    /* The mapped part of the input file and it's offset in the file */
+    private MappedByteBuffer window;
+    private long windowStart;
+    private static final long MAX_WINDOW_SIZE = Integer.MAX_VALUE;
+    private long maxWindowSize = MAX_WINDOW_SIZE;
+
+    /* Field prefixes */
+    private static final byte[] PRODUCT_ID_PREFIX = "product/productId: ".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] HELPFULNESS_PREFIX = "review/helpfulness: ".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] SCORE_PREFIX = "review/score: ".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] TEXT_PREFIX = "review/text:".getBytes(StandardCharsets.US_ASCII);
 
     /**
      * Empty the data structures stored in this instance.
@@ -33,17 +45,16 @@ public class ReviewsParser {
         this.tokensPerReview = new ArrayList<>();
         numOfReviews = 0;
         productIds = new StringBuilder();
+        window = null;
     }
 
     /**
-     * Return the tokens HashSet
-     */
-    HashSet<String> getTokenSet() { return tokenSet; }
-
-    /**
-     * Return the productIds HashSet
+     * Set the largest part of the file mapped at once, so small inputs can be parsed over several windows.
+     * @param bytes The number of bytes, at most MAX_WINDOW_SIZE
      */
-    HashSet<String> getProductIdSet() { return productIdSet; }
+    void setMaxWindowSize(long bytes) {
+        this.maxWindowSize = Math.min(bytes, MAX_WINDOW_SIZE);
+    }
 
     /**
      * Return the review scores as an ArrayList of Strings
@@ -86,106 +97,160 @@ public class ReviewsParser {
     int getNumOfReviews() { return numOfReviews;}
 
     /**
-     * Return the number unique tokens
+     * Parse a review helpfulness of the form numerator/denominator to it's numerator and denominator.
+     * @param from The position of the first byte of the helpfulness
+     * @param to The position after the last byte of the helpfulness
      */
-    int getNumOfTokens() { return tokenSet.size(); }
+    private void writeReviewHelpfulness(int from, int to) {
+        int slash = from;
+        while (slash < to && window.get(slash) != '/') {
+            ++slash;
+        }
+        reviewHelpfulnessNumerator.add((short) parseNumber(from, slash));
+        reviewHelpfulnessDenominator.add((short) parseNumber(slash + 1, to));
+    }
 
     /**
-     * Return the number of unique products
+     * Parse a review score of the form score.fraction, keeping the integral part.
+     * @param from The position of the first byte of the score
+     * @param to The position after the last byte of the score
      */
-    int getNumOfproducts() { return productIdSet.size(); }
+    private void writeReviewScore(int from, int to) {
+        reviewScore.add((byte) parseNumber(from, to));
+    }
 
     /**
-     * Break a text to all it's tokens (alphanumeric).
-     * @param text The text to break
+     * Parse the non-negative decimal number at the given position of the window, stopping at the first non-digit.
+     * @param from The position of the first digit
+     * @param to The position to stop at
+     * @return The number
      */
-    private void breakText(String text) {
-        String[] tokens = text.split(SPLIT_TOKENS_REGEX);
-        int tokenCounter = 0;
-        for (String token: tokens) {
-            if (!token.isEmpty()) {
-                tokenSet.add(token);
-
-                ++tokenCounter;
+    private int parseNumber(int from, int to) {
+        int number = 0;
+        for (int i = from; i < to; ++i) {
+            byte b = window.get(i);
+            if (b < '0' || b > '9') {
+                break;
             }
+            number = number * 10 + (b - '0');
         }
-        tokensPerReview.add((short) tokenCounter);
+        return number;
     }
 
     /**
-     * Parse a string resembling a review helpfulness to it's numerator and denominator.
-     * @param term The review helpfulness as String
+     * Check if the line at the given position of the window starts with the given prefix.
+     * @param pos The position of the line
+     * @param end The position of the end of the line
+     * @param prefix The prefix
      */
-    private void writeReviewHelpfulness(String term) {
-        String[] split = term.split("/");
-        reviewHelpfulnessNumerator.add(Short.parseShort(split[0]));
-        reviewHelpfulnessDenominator.add(Short.parseShort(split[1]));
+    private boolean startsWith(int pos, int end, byte[] prefix) {
+        if (end - pos < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; ++i) {
+            if (window.get(pos + i) != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
     }
 
     /**
-     * Parse a string resembling a review score.
-     * @param term The review helpfulness as String
+     * Map the part of the file starting at the given offset, as much of it as fits in a single buffer.
+     * @param channel The file's channel
+     * @param offset The offset in the file to start from
+     * @throws IOException
      */
-    private void writeReviewScore(String term) {
-        reviewScore.add(Byte.parseByte(term.split("\\.")[0]));
+    private void mapWindow(FileChannel channel, long offset) throws IOException {
+        windowStart = offset;
+        window = channel.map(FileChannel.MapMode.READ_ONLY, offset,
+                             Math.min(channel.size() - offset, maxWindowSize));
     }
 
     /**
-     * Parse the file
+     * Parse the file, feeding the sorter with the postings of every review along the way.
+     * The file is memory mapped and scanned line by line as bytes, so only the product ids are turned into Strings.
+     * A review's text runs from the review/text field up to the next product/productId line, and any other lines in
+     * between are part of it.
      * @param inputFile The file to parse
+     * @param sorter The sorter to feed
      */
-    void parseFile(String inputFile) {
-        try (BufferedReader reader = new BufferedReader(new FileReader(new File(inputFile)), (int)Math.pow(2, 20))){
-            String line = reader.readLine();
-            String textBuffer = "";
+    void parseFile(String inputFile, Sorter sorter) {
+        try (FileChannel channel = FileChannel.open(Paths.get(inputFile), StandardOpenOption.READ)) {
+            long fileSize = channel.size();
+            mapWindow(channel, 0);
+            int pos = 0;
+
+            /* The last text seen, as positions in the window. It is handed again to the sorter if the next review
+               has no text of it's own. */
+            long textStart = 0;
+            long textEnd = 0;
+            boolean textNonEmpty = false;
             boolean textFlag = false;
-            String term;
-            while (line != null){
+            byte[] productIdBytes = new byte[16];
 
-                if (textFlag && !line.startsWith("product/productId: ")) {
-                    textBuffer = textBuffer.concat(" ").concat(line);
-                    line = reader.readLine();
-                    continue;
+            while (windowStart + pos < fileSize) {
+                // Find the end of the current line, moving the window if the line is cut by it
+                int lineEnd = pos;
+                int windowLimit = window.limit();
+                while (lineEnd < windowLimit && window.get(lineEnd) != '\n') {
+                    ++lineEnd;
                 }
-
-                if (line.startsWith("product/productId: ")) {
-                    textFlag = false;
-                    if (!textBuffer.isEmpty()) {
-                        breakText(textBuffer.toLowerCase());
+                if (lineEnd == windowLimit && windowStart + windowLimit < fileSize) {
+                    long lineStart = windowStart + pos;
+                    // Keep the text in the window from it's review/text line, even if that line is empty
+                    long newStart = (textFlag || textNonEmpty) ? Math.min(lineStart, textStart) : lineStart;
+                    if (newStart == windowStart) {
+                        throw new IOException("A review is too long to be mapped");
                     }
-                    ++numOfReviews;
-                    term = line.substring(19);
-                    productIds.append(term);
-                    productIdSet.add(term);
-                    line = reader.readLine();
+                    mapWindow(channel, newStart);
+                    pos = (int) (lineStart - newStart);
                     continue;
                 }
-
-                if (line.startsWith("review/helpfulness: ")) {
-                    writeReviewHelpfulness(line.substring(20));
-                    line = reader.readLine();
-                    continue;
+                int next = lineEnd + 1;
+                if (lineEnd > pos && window.get(lineEnd - 1) == '\r') {
+                    --lineEnd;
                 }
 
-                if (line.startsWith("review/score: ")) {
-                    writeReviewScore(line.substring(14));
-                    line = reader.readLine();
-                    continue;
-                }
-
-                if (line.startsWith("review/text:")) {
+                if (startsWith(pos, lineEnd, PRODUCT_ID_PREFIX)) {
+                    if (textFlag) {
+                        textEnd = windowStart + pos;
+                        textFlag = false;
+                    }
+                    if (textNonEmpty) {
+                        sorter.addReviewText(window, (int) (textStart - windowStart), (int) (textEnd - windowStart));
+                    }
+                    ++numOfReviews;
+                    int length = lineEnd - pos - PRODUCT_ID_PREFIX.length;
+                    if (length > productIdBytes.length) {
+                        productIdBytes = new byte[length];
+                    }
+                    for (int i = 0; i < length; ++i) {
+                        productIdBytes[i] = window.get(pos + PRODUCT_ID_PREFIX.length + i);
+                        productIds.append((char) (productIdBytes[i] & 0xFF));
+                    }
+                    sorter.addProduct(new String(productIdBytes, 0, length, StandardCharsets.ISO_8859_1));
+                } else if (textFlag) {
+                    textNonEmpty = true;  // Any line up to the next product is a part of the text
+                } else if (startsWith(pos, lineEnd, HELPFULNESS_PREFIX)) {
+                    writeReviewHelpfulness(pos + HELPFULNESS_PREFIX.length, lineEnd);
+                } else if (startsWith(pos, lineEnd, SCORE_PREFIX)) {
+                    writeReviewScore(pos + SCORE_PREFIX.length, lineEnd);
+                } else if (startsWith(pos, lineEnd, TEXT_PREFIX)) {
                     textFlag = true;
-                    textBuffer = line.substring(12);
-                    line = reader.readLine();
-                    continue;
+                    textStart = windowStart + pos + TEXT_PREFIX.length;
+                    textNonEmpty = lineEnd > pos + TEXT_PREFIX.length;
                 }
-
-                line = reader.readLine();
+                pos = next;
             }
 
-            if (!textBuffer.isEmpty()) {
-                breakText(textBuffer.toLowerCase());
+            if (textFlag) {
+                textEnd = fileSize;
+            }
+            if (textNonEmpty) {
+                sorter.addReviewText(window, (int) (textStart - windowStart), (int) (textEnd - windowStart));
             }
+            tokensPerReview = sorter.finishFirstPhase();
         } catch (IOException e) {
             System.err.println(e.getMessage());
             System.exit(1);
@@ -0,0 +1,151 @@
+package webdata;
+
+import webdata.utils.DecodedPostings;
+import webdata.utils.ImpactList;
+import webdata.utils.PostingsCache;
+import webdata.utils.PostingsIterator;
+
+import java.io.*;
+
+/**
+ * A single segment of an index, holding the dictionaries and review data of a range of consecutive review ids.
+ * The posting lists of a segment hold global review ids, while it's review data is indexed from the segment's first
+ * review.
+ */
+class Segment {
+
+    Dictionary tokenDict;
+    Dictionary productDict;
+    ReviewData rd;
+    int firstReviewId;
+
+    /**
+     * Load the segment in the given directory. It's files are mapped and used in place, and are shared by all readers.
+     * @param dir The directory of the segment
+     * @param firstReviewId The id of the segment's first review
+     */
+    Segment(String dir, int firstReviewId) {
+        this.firstReviewId = firstReviewId;
+        try {
+            tokenDict = Dictionary.open(dir + File.separator + IndexWriter.tokenDictFileName, dir);
+            productDict = Dictionary.open(dir + File.separator + IndexWriter.productDictFileName, dir);
+            rd = ReviewData.open(dir + File.separator + IndexWriter.reviewDataFileName);
+        } catch(IOException e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Check if the given review belongs to this segment.
+     */
+    boolean contains(int reviewId) {
+        return (firstReviewId <= reviewId) && (reviewId < firstReviewId + rd.getNumOfReviews());
+    }
+
+    /**
+     * Return the index of the given review in the segment's review data
+     */
+    int localId(int reviewId) {
+        return reviewId - firstReviewId;
+    }
+
+    /**
+     * Return the product id of the given review of this segment, by it's product ordinal
+     */
+    String getProductId(int localId) {
+        return productDict.getTerm(rd.getProductOrdinal(localId));
+    }
+
+    /**
+     * Return the number of reviews in the segment containing the given (lower case) token
+     */
+    int getTokenFrequency(String token) {
+        int i = tokenDict.searchTerm(token);
+        if (i < 0 || i >= tokenDict.getNumOfTerms()) {
+            return 0;
+        }
+        return tokenDict.getDocumentFrequency(i);
+    }
+
+    /**
+     * Return the number of times the given (lower case) token appears in the segment
+     */
+    int getTokenCollectionFrequency(String token) {
+        int i = tokenDict.searchTerm(token);
+        if (i < 0 || i >= tokenDict.getNumOfTerms()) {
+            return 0;
+        }
+        return tokenDict.getFrequency(i);
+    }
+
+    /**
+     * Return the largest number of times the given (lower case) token appears in a single review of the segment
+     */
+    int getTokenMaxFrequency(String token) {
+        int i = tokenDict.searchTerm(token);
+        if (i < 0 || i >= tokenDict.getNumOfTerms()) {
+            return 0;
+        }
+        return tokenDict.getMaxFrequency(i);
+    }
+
+    /**
+     * Read the posting list of a term from one of the segment's dictionaries, through a cache of decoded lists.
+     * A list not cached is decoded whole and offered to the cache only if the cache would admit it, and is otherwise
+     * decoded lazily from the posting file.
+     * @param dict The token or product dictionary of this segment
+     * @param term The term
+     * @param cache The cache
+     * @param keyPrefix The key of the dictionary in the cache, to which the ordinal of the term is added
+     * @return An iterator over the posting list, or null if the term is not in the segment
+     */
+    PostingsIterator postings(Dictionary dict, String term, PostingsCache cache, long keyPrefix) {
+        int i = dict.searchTerm(term);
+        if (i < 0 || i >= dict.getNumOfTerms()) {
+            return null;
+        }
+        long key = keyPrefix | i;
+        DecodedPostings list = cache.get(key);
+        if (list != null) {
+            return list.iterator();
+        }
+        boolean hasFrequencies = (dict == tokenDict);
+        int size = dict.getDocumentFrequency(i);
+        if (!cache.wouldAdmit(key, DecodedPostings.bytesOf(size, hasFrequencies))) {
+            return dict.postings(i);
+        }
+        list = new DecodedPostings(dict.postings(i), size, hasFrequencies);
+        cache.put(key, list);
+        return list.iterator();
+    }
+
+    /**
+     * Pin the decoded posting list of a term from one of the segment's dictionaries in a cache.
+     * @param dict The token or product dictionary of this segment
+     * @param term The term
+     * @param cache The cache
+     * @param keyPrefix The key of the dictionary in the cache, to which the ordinal of the term is added
+     * @return False if the list doesn't fit in the cache, or true otherwise, also when the term is not in the segment
+     */
+    boolean pinPostings(Dictionary dict, String term, PostingsCache cache, long keyPrefix) {
+        int i = dict.searchTerm(term);
+        if (i < 0 || i >= dict.getNumOfTerms()) {
+            return true;
+        }
+        DecodedPostings list = new DecodedPostings(dict.postings(i), dict.getDocumentFrequency(i), dict == tokenDict);
+        return cache.pin(keyPrefix | i, list);
+    }
+
+    /**
+     * Read the impact ordered posting list of a (lower case) token. The segment must be impact ordered.
+     * @return The list, or null if the token is not in the segment
+     */
+    ImpactList impacts(String token) {
+        int i = tokenDict.searchTerm(token);
+        if (i < 0 || i >= tokenDict.getNumOfTerms()) {
+            return null;
+        }
+        return tokenDict.impacts(i);
+    }
+}
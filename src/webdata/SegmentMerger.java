@@ -0,0 +1,188 @@
+package webdata;
+
+import webdata.utils.PostingCodec;
+import webdata.utils.RunWriter;
+import webdata.utils.Throttle;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Merges consecutive segments of an index into a single segment.
+ * The term streams of the segments' dictionaries are merged in order, and the posting lists of every term are read
+ * from the segments' posting files sequentially, decoded to primitive arrays and streamed as sorted lines to a run
+ * file, from which the merged dictionary is built the same way a new segment's is. The merged segment is therefore
+ * identical to a segment indexed from the reviews of all the merged segments at once.
+ */
+class SegmentMerger {
+
+    private static final String mergedFileName = "merged";
+    private Throttle throttle;
+    private boolean hashProductIds;
+    private boolean impactOrdered;
+
+    /**
+     * Constructor
+     * @param throttle The throttle to pause on after reading the posting lists of every term
+     * @param hashProductIds Indicates if the merged product dictionary gets a perfect hash of it's productIds
+     * @param impactOrdered Indicates if the merged token dictionary gets impact ordered posting lists
+     */
+    SegmentMerger(Throttle throttle, boolean hashProductIds, boolean impactOrdered) {
+        this.throttle = throttle;
+        this.hashProductIds = hashProductIds;
+        this.impactOrdered = impactOrdered;
+    }
+
+    /**
+     * A cursor over the terms and posting lists of a single segment.
+     */
+    private static class Cursor implements Closeable {
+        Dictionary dict;
+        Iterator<String> terms;
+        DataInputStream postings;
+        long postingsLength;
+        String term;
+        int index = -1;
+
+        Cursor(Dictionary dict) throws IOException {
+            this.dict = dict;
+            this.terms = dict.terms();
+            File file = new File(dict.getPath());
+            this.postingsLength = file.length();
+            this.postings = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            advance();
+        }
+
+        /**
+         * Move to the next term, or set term to null at the end of the dictionary.
+         */
+        void advance() {
+            term = terms.hasNext() ? terms.next() : null;
+            ++index;
+        }
+
+        /**
+         * Return the number of bytes of the current term's posting lists
+         */
+        int postingsSize() {
+            long end = (index + 1 < dict.getNumOfTerms()) ? dict.getPostingPtr(index + 1) : postingsLength;
+            return (int) (end - dict.getPostingPtr(index));
+        }
+
+        @Override
+        public void close() throws IOException {
+            postings.close();
+        }
+    }
+
+    /**
+     * Merge the given segments into a new segment.
+     * @param segments The segments to merge, in order of their review ids
+     * @param dir The directory of the new segment
+     * @throws IOException
+     */
+    void merge(List<Segment> segments, String dir) throws IOException {
+        ArrayList<Dictionary> tokenDicts = new ArrayList<>();
+        ArrayList<Dictionary> productDicts = new ArrayList<>();
+        for (Segment segment: segments) {
+            tokenDicts.add(segment.tokenDict);
+            productDicts.add(segment.productDict);
+        }
+        mergeDictionaries(tokenDicts, false, dir).write(dir + File.separator + IndexWriter.tokenDictFileName);
+        Dictionary productDict = mergeDictionaries(productDicts, true, dir);
+        if (hashProductIds) {
+            productDict.buildHash();
+        }
+
+        /* The product ordinals of every segment are mapped to the ordinals of the merged product dictionary */
+        ArrayList<ReviewData> parts = new ArrayList<>();
+        ArrayList<int[]> productOrdinalMaps = new ArrayList<>();
+        for (Segment segment: segments) {
+            parts.add(segment.rd);
+            int[] ordinalMap = new int[segment.productDict.getNumOfTerms()];
+            Iterator<String> terms = segment.productDict.terms();
+            for (int i = 0; i < ordinalMap.length; ++i) {
+                ordinalMap[i] = productDict.searchTerm(terms.next());
+            }
+            productOrdinalMaps.add(ordinalMap);
+        }
+        new ReviewData(parts, productOrdinalMaps).write(dir + File.separator + IndexWriter.reviewDataFileName);
+        productDict.write(dir + File.separator + IndexWriter.productDictFileName);
+    }
+
+    /**
+     * Merge the dictionaries and posting lists of the segments.
+     * @param dicts The dictionaries to merge, in order of their segments' review ids
+     * @param isProduct Indicates if the terms are productIds or tokens
+     * @param dir The directory of the new segment
+     * @return The merged dictionary
+     * @throws IOException
+     */
+    private Dictionary mergeDictionaries(List<Dictionary> dicts, boolean isProduct, String dir) throws IOException {
+        Path run = Paths.get(dir, mergedFileName);
+        ArrayList<String> mapping = new ArrayList<>();
+        ArrayList<Cursor> cursors = new ArrayList<>();
+        try (RunWriter writer = new RunWriter(run, false)) {
+            for (Dictionary dict: dicts) {
+                cursors.add(new Cursor(dict));
+            }
+            byte[] bytes = new byte[1 << 12];
+            int[] reviews = new int[1 << 10];
+            int[] frequencies = new int[1 << 10];
+
+            while (true) {
+                String term = null;
+                for (Cursor cursor: cursors) {
+                    if (cursor.term != null && (term == null || cursor.term.compareTo(term) < 0)) {
+                        term = cursor.term;
+                    }
+                }
+                if (term == null) {
+                    break;
+                }
+                int ordinal = mapping.size();
+                mapping.add(term);
+
+                // The segments hold consecutive review ranges, so their lists are written one after the other
+                long numOfBytes = 0;
+                for (Cursor cursor: cursors) {
+                    if (!term.equals(cursor.term)) {
+                        continue;
+                    }
+                    int size = cursor.postingsSize();
+                    if (size > bytes.length) {
+                        bytes = new byte[Math.max(size, bytes.length * 2)];
+                    }
+                    cursor.postings.readFully(bytes, 0, size);
+                    numOfBytes += size;
+
+                    int length = PostingCodec.readSize(bytes, 0);
+                    if (length > reviews.length) {
+                        reviews = new int[Math.max(length, reviews.length * 2)];
+                        frequencies = new int[reviews.length];
+                    }
+                    PostingCodec.decode(cursor.dict.getCodec(cursor.index), bytes, 0, reviews,
+                                        isProduct ? null : frequencies);
+                    for (int i = 0; i < length; ++i) {
+                        writer.write(ordinal, reviews[i], isProduct ? 1 : frequencies[i]);
+                    }
+                    cursor.advance();
+                }
+                throttle.pause(numOfBytes);
+            }
+        } finally {
+            for (Cursor cursor: cursors) {
+                cursor.close();
+            }
+        }
+
+        Dictionary dict = new Dictionary(mapping.size(), run.toString(), isProduct, dir, mapping, impactOrdered);
+        Files.deleteIfExists(run);
+        return dict;
+    }
+}
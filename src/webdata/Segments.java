@@ -0,0 +1,133 @@
+package webdata;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+
+/**
+ * The manifest of an index, listing it's segments.
+ * Every segment is an immutable sub index, kept in it's own directory, of a range of consecutive review ids. The
+ * segments are listed in order of their review ids, so concatenating their posting lists keeps them sorted.
+ * The manifest is replaced atomically, so a reader always sees a complete set of segments.
+ */
+class Segments implements Serializable {
+    /* Fixed, so changes to the methods don't make the manifests already written unreadable */
+    private static final long serialVersionUID = -3614820670226480544L;
+
+    private ArrayList<String> names = new ArrayList<>();
+    private ArrayList<Integer> firstReviewIds = new ArrayList<>();
+    private ArrayList<Integer> numOfReviews = new ArrayList<>();
+    private int nextSegmentNumber = 0;
+
+    /**
+     * Read the manifest of the index in the given directory.
+     * @param dir The directory of the index
+     * @return The manifest, or an empty one if the directory holds no index
+     * @throws IOException
+     */
+    static Segments read(String dir) throws IOException {
+        File file = new File(dir, IndexWriter.segmentsFileName);
+        if (!file.exists()) {
+            return new Segments();
+        }
+        try (ObjectInputStream in = new ObjectInputStream(new FileInputStream(file))) {
+            return (Segments) in.readObject();
+        } catch (ClassNotFoundException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Write the manifest to the given directory, replacing the existing one atomically.
+     * @param dir The directory of the index
+     * @throws IOException
+     */
+    void write(String dir) throws IOException {
+        Path tmp = Paths.get(dir, IndexWriter.segmentsFileName + ".tmp");
+        try (ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(tmp.toFile()))) {
+            out.writeObject(this);
+        }
+        Files.move(tmp, Paths.get(dir, IndexWriter.segmentsFileName), StandardCopyOption.ATOMIC_MOVE,
+                   StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Reserve a name for a new segment.
+     */
+    String newSegmentName() {
+        return IndexWriter.segmentDirPrefix + (nextSegmentNumber++);
+    }
+
+    /**
+     * Add a segment after the existing ones.
+     * @param name The name of the segment's directory
+     * @param firstReviewId The id of the segment's first review, which must be getNumOfReviews() + 1
+     * @param numOfReviews The number of reviews in the segment
+     * @throws IOException If the segment was built with other review ids, as when another segment was added meanwhile
+     */
+    void add(String name, int firstReviewId, int numOfReviews) throws IOException {
+        if (firstReviewId != getNumOfReviews() + 1) {
+            throw new IOException("Segment " + name + " starts at review " + firstReviewId + " instead of " +
+                                  (getNumOfReviews() + 1));
+        }
+        firstReviewIds.add(firstReviewId);
+        names.add(name);
+        this.numOfReviews.add(numOfReviews);
+    }
+
+    /**
+     * Replace a range of consecutive segments by a single segment holding all of their reviews.
+     * @param from The index of the first segment to replace
+     * @param to The index after the last segment to replace
+     * @param name The name of the new segment's directory
+     */
+    void replace(int from, int to, String name) {
+        int reviews = 0;
+        for (int i = from; i < to; ++i) {
+            reviews += numOfReviews.get(i);
+        }
+        int firstReviewId = firstReviewIds.get(from);
+        names.subList(from, to).clear();
+        firstReviewIds.subList(from, to).clear();
+        numOfReviews.subList(from, to).clear();
+        names.add(from, name);
+        firstReviewIds.add(from, firstReviewId);
+        numOfReviews.add(from, reviews);
+    }
+
+    /**
+     * Return the index of the segment with the given name, or -1 if there is no such segment
+     */
+    int indexOf(String name) { return names.indexOf(name); }
+
+    /**
+     * Return the number of segments
+     */
+    int size() { return names.size(); }
+
+    /**
+     * Return the directory name of the i'th segment
+     */
+    String getName(int i) { return names.get(i); }
+
+    /**
+     * Return the id of the first review of the i'th segment
+     */
+    int getFirstReviewId(int i) { return firstReviewIds.get(i); }
+
+    /**
+     * Return the number of reviews of the i'th segment
+     */
+    int getNumOfReviews(int i) { return numOfReviews.get(i); }
+
+    /**
+     * Return the number of reviews in all segments
+     */
+    int getNumOfReviews() {
+        int last = names.size() - 1;
+        return (last < 0) ? 0 : firstReviewIds.get(last) + numOfReviews.get(last) - 1;
+    }
+}
@@ -1,348 +1,534 @@
 package webdata;
 
-import webdata.utils.Line;
+import webdata.utils.PostingBuffer;
 import webdata.utils.ReaderWrapper;
+import webdata.utils.RunWriter;
+import webdata.utils.Tokenizer;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
- * A class for sorting the dataset
+ * A class for sorting the dataset.
+ * Terms are given provisional ids in order of first appearance while the input is parsed, and are remapped to their
+ * sorted ordinals when the temp files are merged.
+ * The first phase is pipelined: the parser's thread collects the reviews into batches, and a pool of worker threads
+ * tokenizes every batch, sorts it and writes it as a temp file. Review ids are assigned by the parser's thread, so
+ * they are the same as in a sequential pass. The size of the batches is derived from a memory budget.
  */
 public class Sorter {
     /* Data */
-    private ArrayList<String> tokensArray;
-    private ArrayList<String> productIdsArray;
-    private HashMap<String, Integer> tokensMap;
-    private HashMap<String, Integer> productIdMap;
+    private ArrayList<String> tokensArray = new ArrayList<>();
+    private ArrayList<String> productIdsArray = new ArrayList<>();
+    private ConcurrentHashMap<String, Integer> tokensMap = new ConcurrentHashMap<>();
+    private ConcurrentHashMap<String, Integer> productIdMap = new ConcurrentHashMap<>();
+    private AtomicInteger numOfTokens = new AtomicInteger(0);
+    private AtomicInteger numOfProducts = new AtomicInteger(0);
     private int numOfReviews = 0;
 
-    private ArrayList<webdata.utils.Line> tokenLines = new ArrayList<>();
-    private ArrayList<webdata.utils.Line> productIdLines = new ArrayList<>();
+    /* The batch currently collected by the parser's thread */
+    private Batch batch = new Batch();
+    private long batchBudget;
 
-    /* String constants */
-    private static final String SPLIT_TOKENS_REGEX = "[^A-Za-z0-9]+";
+    /* Worker threads and the batches they are working on, in the order they were submitted */
+    private ExecutorService workers;
+    private int numOfThreads;
+    private ArrayDeque<Future<short[]>> pending = new ArrayDeque<>();
+    private ArrayList<Short> tokensPerReview = new ArrayList<>();
+
+    /* Estimated memory held by a batch per byte of review text (the text itself and it's postings) */
+    private static final int ESTIMATED_BYTES_PER_TEXT_BYTE = 7;
+    private static final int ESTIMATED_BYTES_PER_REVIEW = 128;
+    private static final int MAX_TEXT_BYTES_PER_BATCH = 1 << 30;
 
     /* File paths to save the terms lists */
     private String tmpDir;
-    private static final int NUM_OF_REVIEWS_PER_FILE = 10000;
-    private static final String SORT_TEMP_TOKEN_FILE_NAME = "t_%d_%d.txt";
-    private static final String SORT_TEMP_PRODUCT_FILE_NAME = "p_%d_%d.txt";
+    private static final String SORT_TEMP_TOKEN_FILE_NAME = "t_%d_%d.run";
+    private static final String SORT_TEMP_PRODUCT_FILE_NAME = "p_%d_%d.run";
     private int numOfTempFiles = 0;
     private final int M = 1000;
+    private boolean compress;
+
+    /**
+     * A batch of reviews that is written as a single temp file.
+     */
+    private static class Batch {
+        /* The texts of the reviews, one after the other, with the start and review id of each */
+        byte[] bytes = new byte[1 << 12];
+        int numOfBytes = 0;
+        int numOfTexts = 0;
+        int[] textStarts = new int[16];
+        int[] textReviewIds = new int[16];
+        /* The product id of every review of the batch, starting at firstReviewId */
+        ArrayList<String> productIds = new ArrayList<>();
+        int firstReviewId;
+        /* The estimated memory held by the batch while it is sorted */
+        long estimatedSize = 0;
+        /* The number of this batch's temp files */
+        int tempFileNumber;
+    }
 
     /**
      * Constructor
-     * @param tokensArray ArrayList of token Strings
-     * @param productIdsArray ArrayList of product id Strings
      * @param tmpDir Directory of temp files
+     * @param compress Indicates if the blocks of the temp and sorted files should be compressed
+     * @param numOfThreads The number of worker threads generating the temp files
+     * @param memoryBudget The number of bytes the batches in progress may use
+     * @param firstReviewId The id of the first review added
      */
-    Sorter(ArrayList<String> tokensArray, ArrayList<String> productIdsArray, String tmpDir) {
-        Collections.sort(tokensArray);
-        this.tokensArray = tokensArray;
-        this.tokensMap = buildHashMap(tokensArray);
-
-        Collections.sort(productIdsArray);
-        this.productIdsArray = productIdsArray;
-        this.productIdMap = buildHashMap(productIdsArray);
-
+    Sorter(String tmpDir, boolean compress, int numOfThreads, long memoryBudget, int firstReviewId) {
         this.tmpDir = tmpDir;
+        this.numOfReviews = firstReviewId - 1;
+        this.compress = compress;
+        this.numOfThreads = Math.max(1, numOfThreads);
+        this.workers = Executors.newFixedThreadPool(this.numOfThreads);
+        // A batch is collected while up to numOfThreads + 1 batches are waiting for or held by the workers
+        this.batchBudget = Math.max(1, memoryBudget / (this.numOfThreads + 2));
     }
 
     /**
      * Clear data members
      */
     void clear() {
-        tokensMap = new HashMap<>();
-        productIdMap = new HashMap<>();
+        tokensMap = new ConcurrentHashMap<>();
+        productIdMap = new ConcurrentHashMap<>();
+        tokensPerReview = new ArrayList<>();
+    }
+
+    /**
+     * Sort the given provisional terms and compute the mapping from a provisional id to its sorted ordinal.
+     * The terms ArrayList is sorted in place, so afterwards the String at index i is the term of ordinal i.
+     * @param terms The terms, where the String at index i is the term with provisional id i
+     * @return The mapping from provisional id to sorted ordinal
+     */
+    private static int[] buildOrdinals(ArrayList<String> terms) {
+        Integer[] byTerm = new Integer[terms.size()];
+        for (int i = 0; i < byTerm.length; ++i) {
+            byTerm[i] = i;
+        }
+        Arrays.sort(byTerm, Comparator.comparing(terms::get));
+        int[] ordinals = new int[byTerm.length];
+        for (int i = 0; i < byTerm.length; ++i) {
+            ordinals[byTerm[i]] = i;
+        }
+        Collections.sort(terms);
+        return ordinals;
     }
 
     /**
-     * Build a hash table from the given ArrayList, where the String at index i is mapped to i.
-     * @param toConvert The ArrayList to build from
-     * @return The newly created HashMap
+     * Get the id of a term, assigning a new one if the term was not seen yet.
+     * @param term The term
+     * @param map The term to id map
+     * @param terms The id to term list
+     * @return The id of the term
      */
-    private static HashMap<String, Integer> buildHashMap(ArrayList<String> toConvert) {
-        HashMap<String, Integer> hmap = new HashMap<>();
-        for (int i = 0; i < toConvert.size(); ++i) {
-            hmap.put(toConvert.get(i), i);
+    private static int provisionalId(String term, HashMap<String, Integer> map, ArrayList<String> terms) {
+        Integer id = map.get(term);
+        if (id == null) {
+            id = terms.size();
+            map.put(term, id);
+            terms.add(term);
         }
-        return hmap;
+        return id;
     }
 
     /**
-     * Get the ArrayList of token Strings
+     * Get the ArrayList of token Strings. Once sorted, the String at index i is the token with ordinal i.
      */
     ArrayList<String> getTokensArray() { return tokensArray; }
 
     /**
-     * Get the ArrayList of product id Strings
+     * Get the ArrayList of product id Strings. Once sorted, the String at index i is the product with ordinal i.
      */
     ArrayList<String> getProductIdsArray() { return productIdsArray; }
 
     /**
-     * Break a text to all it's tokens (alphanumeric).
-     * @param text The text to break
+     * Return the number of unique tokens
      */
-    private void breakText(String text) {
-        ArrayList<String> tokens = new ArrayList<>(Arrays.asList(text.split(SPLIT_TOKENS_REGEX)));
-        Collections.sort(tokens);
-        String prevToken = "";
-        int freq = 1;
-        for (String token: tokens) {
-            if (!token.isEmpty()) {
-                if (!token.equals(prevToken)) {
-                    if (!prevToken.isEmpty()) {
-                        tokenLines.add(createLine(tokensMap.get(prevToken), freq));
-                    }
-                    prevToken = token;
-                    freq = 1;
-                } else {
-                    ++freq;
-                }
-            }
-        }
+    int getNumOfTokens() { return tokensArray.size(); }
+
+    /**
+     * Return the number of unique products
+     */
+    int getNumOfProducts() { return productIdsArray.size(); }
 
-        if (!prevToken.isEmpty()) {
-            tokenLines.add(createLine(tokensMap.get(prevToken), freq));
+    /**
+     * Start a new review of the given product.
+     * @param productId The product id of the review
+     */
+    void addProduct(String productId) {
+        ++numOfReviews;
+        if (batch.estimatedSize >= batchBudget || batch.numOfBytes >= MAX_TEXT_BYTES_PER_BATCH) {
+            submitBatch();
+        }
+        if (batch.productIds.isEmpty()) {
+            batch.firstReviewId = numOfReviews;
         }
+        batch.productIds.add(productId);
+        batch.estimatedSize += ESTIMATED_BYTES_PER_REVIEW;
     }
 
     /**
-     * Create a new line object
-     * @param term term of the line
-     * @param freq frequency of the term
-     * @return the new line object
+     * Add the text of the current review. It's bytes are copied to the batch and tokenized later by a worker thread.
+     * @param buffer The buffer holding the text of the review
+     * @param from The position of the first byte of the text
+     * @param to The position after the last byte of the text
      */
-    private webdata.utils.Line createLine(int term, int freq){
-        return new webdata.utils.Line(term + "#" + numOfReviews + "#" + freq);
+    void addReviewText(ByteBuffer buffer, int from, int to) {
+        int i = batch.numOfTexts++;
+        if (i == batch.textReviewIds.length) {
+            batch.textStarts = Arrays.copyOf(batch.textStarts, i * 2);
+            batch.textReviewIds = Arrays.copyOf(batch.textReviewIds, i * 2);
+        }
+        batch.textStarts[i] = batch.numOfBytes;
+        batch.textReviewIds[i] = numOfReviews;
+
+        int length = to - from;
+        if (batch.numOfBytes + length > batch.bytes.length) {
+            batch.bytes = Arrays.copyOf(batch.bytes, Math.max(batch.bytes.length * 2, batch.numOfBytes + length));
+        }
+        buffer.get(from, batch.bytes, batch.numOfBytes, length);
+        batch.numOfBytes += length;
+        batch.estimatedSize += (long) ESTIMATED_BYTES_PER_TEXT_BYTE * length;
     }
 
     /**
-     * Parse the file
-     * @param inputFile The file to parse
+     * Wait for all temp files of the first phase to be written.
+     * @return The number of tokens of every review text added, in the order they were added
      */
-    void firstPhase(String inputFile) {
-        try (BufferedReader reader = new BufferedReader(new FileReader(new File(inputFile)))){
-            String line = reader.readLine();
-            String textBuffer = "";
-            boolean textFlag = false;
-            while (line != null){
-
-                if (textFlag && !line.startsWith("product/productId: ")) {
-                    textBuffer = textBuffer.concat(" ").concat(line);
-                    line = reader.readLine();
-                    continue;
-                }
+    ArrayList<Short> finishFirstPhase() {
+        submitBatch();
+        while (!pending.isEmpty()) {
+            awaitOldestBatch();
+        }
+        workers.shutdown();
 
-                if (line.startsWith("product/productId: ")) {
-                    textFlag = false;
-                    if (!textBuffer.isEmpty()) {
-                        breakText(textBuffer.toLowerCase());
-                    }
-                    ++numOfReviews;
-                    if (numOfReviews % (NUM_OF_REVIEWS_PER_FILE + 1)  == 0) {
-                        createTempFiles();
-                    }
-                    productIdLines.add(createLine(productIdMap.get(line.substring(19)), 1));
-                    line = reader.readLine();
-                    continue;
-                }
+        tokensArray = toTermsArray(tokensMap, numOfTokens.get());
+        productIdsArray = toTermsArray(productIdMap, numOfProducts.get());
+        return tokensPerReview;
+    }
 
-                if (line.startsWith("review/text:")) {
-                    textFlag = true;
-                    textBuffer = line.substring(12);
-                    line = reader.readLine();
-                    continue;
-                }
+    /**
+     * Build the provisional id to term list of the given map.
+     * @param map The term to provisional id map
+     * @param size The number of terms
+     * @return The list, where the String at index i is the term with provisional id i
+     */
+    private static ArrayList<String> toTermsArray(ConcurrentHashMap<String, Integer> map, int size) {
+        ArrayList<String> terms = new ArrayList<>(Collections.nCopies(size, (String) null));
+        for (Map.Entry<String, Integer> entry: map.entrySet()) {
+            terms.set(entry.getValue(), entry.getKey());
+        }
+        return terms;
+    }
 
-                line = reader.readLine();
-            }
+    /**
+     * Hand the current batch to the workers and start a new one. Waits for the oldest batch when all workers are
+     * busy and another batch is waiting, so the parser doesn't run ahead of the workers.
+     */
+    private void submitBatch() {
+        batch.tempFileNumber = numOfTempFiles++;
+        final Batch toWrite = batch;
+        pending.add(workers.submit(() -> createTempFiles(toWrite)));
+        batch = new Batch();
+        while (pending.size() > numOfThreads) {
+            awaitOldestBatch();
+        }
+    }
 
-            if (!textBuffer.isEmpty()) {
-                breakText(textBuffer.toLowerCase());
+    /**
+     * Wait for the oldest batch in progress and collect it's number of tokens per review.
+     */
+    private void awaitOldestBatch() {
+        try {
+            for (short tokenCount: pending.poll().get()) {
+                tokensPerReview.add(tokenCount);
             }
-            createTempFiles();
-        } catch (IOException e) {
+        } catch (InterruptedException | ExecutionException e) {
             System.err.println(e.getMessage());
             System.exit(1);
         }
     }
 
     /**
-     * Create temp files for the sorting process
+     * Create temp files for the sorting process. Runs on a worker thread.
+     * @param batch The batch to tokenize and write
+     * @return The number of tokens in each of the batch's texts
+     * @throws IOException
      */
-    private void createTempFiles() {
-        Collections.sort(tokenLines);
-        Collections.sort(productIdLines);
-        writeMBlocks(tokenLines, SORT_TEMP_TOKEN_FILE_NAME);
-        writeMBlocks(productIdLines, SORT_TEMP_PRODUCT_FILE_NAME);
-        ++numOfTempFiles;
-        tokenLines = new ArrayList<>();
-        productIdLines = new ArrayList<>();
+    private short[] createTempFiles(Batch batch) throws IOException {
+        Tokenizer tokenizer = new Tokenizer();
+        PostingBuffer postings = new PostingBuffer(
+                (int) Math.min(Integer.MAX_VALUE - 8, batch.estimatedSize / PostingBuffer.BYTES_PER_POSTING));
+        short[] tokenCounts = new short[batch.numOfTexts];
+        for (int i = 0; i < tokenCounts.length; ++i) {
+            int end = (i + 1 < batch.numOfTexts) ? batch.textStarts[i + 1] : batch.numOfBytes;
+            tokenCounts[i] = (short) tokenizer.tokenize(batch.bytes, batch.textStarts[i], end);
+            for (int j = 0; j < tokenizer.getNumOfDistinct(); ++j) {
+                int term = tokenizer.getDistinct(j);
+                postings.add(term, batch.textReviewIds[i], tokenizer.getFrequency(term));
+            }
+        }
+        batch.bytes = null;  // Let the texts be collected while the postings are sorted and written
+        writeMBlocks(postings, tokenizer.getTerms(), tokensMap, numOfTokens, SORT_TEMP_TOKEN_FILE_NAME,
+                     batch.tempFileNumber);
+
+        HashMap<String, Integer> vocabulary = new HashMap<>();
+        ArrayList<String> terms = new ArrayList<>();
+        postings = new PostingBuffer(batch.productIds.size());
+        for (int i = 0; i < batch.productIds.size(); ++i) {
+            postings.add(provisionalId(batch.productIds.get(i), vocabulary, terms), batch.firstReviewId + i, 1);
+        }
+        writeMBlocks(postings, terms, productIdMap, numOfProducts, SORT_TEMP_PRODUCT_FILE_NAME,
+                     batch.tempFileNumber);
+        return tokenCounts;
     }
 
     /**
-     * Writes the blocks to a temp file with number tempNumber.
-     * @param blocks The blocks to write.
+     * Sort the postings of a batch by their term's String and then by review, which is the order their sorted
+     * ordinals will have, and write them to a temp file with their shared provisional ids.
+     * @param postings The postings, holding local ids and added in review order
+     * @param terms The local id to term list
+     * @param ids The shared term to provisional id map
+     * @param counter The number of shared provisional ids assigned so far
      * @param fileName The file name to be used as the temp file
+     * @param tempNumber The number of the temp file
+     * @throws IOException
      */
-    private void writeMBlocks(ArrayList<webdata.utils.Line> blocks, String fileName){
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(
-                new File(Paths.get(tmpDir, String.format(fileName, 0, numOfTempFiles)).toString())))){
+    private void writeMBlocks(PostingBuffer postings, ArrayList<String> terms, ConcurrentHashMap<String, Integer> ids,
+                              AtomicInteger counter, String fileName, int tempNumber) throws IOException {
+        postings.sortByRank(buildOrdinals(terms));
+
+        // Translate the ranks to the shared provisional ids
+        int[] provisionalIds = new int[terms.size()];
+        for (int i = 0; i < provisionalIds.length; ++i) {
+            provisionalIds[i] = ids.computeIfAbsent(terms.get(i), term -> counter.getAndIncrement());
+        }
+
+        try (RunWriter writer = new RunWriter(Paths.get(tmpDir, String.format(fileName, 0, tempNumber)), compress)){
             // Writes the block lines to the temp file
-            for (webdata.utils.Line line:blocks) {
-                writer.write(line.toString());
-                writer.newLine();
+            for (int i = 0; i < postings.size(); ++i) {
+                writer.write(provisionalIds[postings.getTerm(i)], postings.getReviewId(i), postings.getFrequency(i));
             }
-        } catch (IOException e) {
-            System.err.println(e.getMessage());
         }
     }
 
     /**
-     * This method performs merge sort on the first column of the table in the given in file, R(A,B,C) or S(A,D,E),
-     * and writes the output to the out file.
-     * @param in The pathname of the file to read from.
+     * This method merges the temp files written while the input was parsed (see finishFirstPhase), and writes the
+     * lines sorted by term ordinal and review to the out files.
+     * The token and product files are merged concurrently, and the final merge of the token files is partitioned
+     * into term ranges that are merged in parallel and then concatenated.
      * @param outTokens The pathname of the token file to write to.
      * @param outProducts The pathname of the product file to write to.
      */
-    public void sort(String in, String outTokens, String outProducts) {
-        firstPhase(in);
+    public void sort(String outTokens, String outProducts) {
         clear();
-        secondPhase(outTokens, tmpDir, numOfTempFiles, SORT_TEMP_TOKEN_FILE_NAME);
-        secondPhase(outProducts, tmpDir, numOfTempFiles, SORT_TEMP_PRODUCT_FILE_NAME);
-    }
-
-    private void copyOut(File in, String out) {
-        try (BufferedReader reader = new BufferedReader(new FileReader(in))) {
-            try (BufferedWriter writer = new BufferedWriter(new FileWriter(new File(out)))) {
-                String line = reader.readLine();
-                while (line != null) {
-                    writer.write(line);
-                    writer.newLine();
-                    line = reader.readLine();
-                }
-            }
-        } catch (IOException e) {
+        int[] tokenOrdinals = buildOrdinals(tokensArray);
+        int[] productOrdinals = buildOrdinals(productIdsArray);
+        ExecutorService mergers = Executors.newFixedThreadPool(numOfThreads + 1);
+        try {
+            Future<Void> products = mergers.submit(() -> {
+                secondPhase(outProducts, SORT_TEMP_PRODUCT_FILE_NAME, productOrdinals, 1, null);
+                return null;
+            });
+            secondPhase(outTokens, SORT_TEMP_TOKEN_FILE_NAME, tokenOrdinals, numOfThreads, mergers);
+            products.get();
+        } catch (IOException | InterruptedException | ExecutionException e) {
             System.err.println(e.getMessage());
+            System.exit(1);
+        } finally {
+            mergers.shutdown();
         }
     }
 
     /**
-     * This method performs the second phase of the two phase sort algorithm. It reads all lines from
-     * numberOfTempFiles temp files into the output file.
+     * This method performs the second phase of the two phase sort algorithm. It reads all lines from the temp files
+     * of the first phase into the output file.
+     * While there are too many files to merge at once, groups of M / numOfPartitions files are merged in parallel, each
+     * into a single file. The remaining files are then merged in numOfPartitions term ranges, each to it's own file,
+     * which are concatenated to the output file.
      * @param out The output file name.
-     * @param tmpPath The path of the temp files.
-     * @param numberOfTempFiles The number of temp files.
+     * @param fileName The temp file name template.
+     * @param ordinals The mapping from provisional id to sorted ordinal, applied when the first phase's files are read
+     * @param numOfPartitions The number of term ranges of the final merge
+     * @param executor The executor to run the merges on, or null to run them on the calling thread
+     * @throws IOException
      */
-    private void secondPhase(String out, String tmpPath, int numberOfTempFiles, String fileName){
-        double mergeSteps = Math.ceil(Math.log(numberOfTempFiles) / Math.log(M));
-        double numOfFiles = numberOfTempFiles;
-        String outputFileName = out;
-        if (mergeSteps == 0) {
-            String in = String.format(fileName, 0, 0);
-            copyOut(Paths.get(tmpDir, in).toFile(), out);
-            try {
-                Files.deleteIfExists(Paths.get(tmpDir, in));
-            } catch (IOException e) {
-                System.err.println(e.getMessage());
+    private void secondPhase(String out, String fileName, int[] ordinals, int numOfPartitions,
+                             ExecutorService executor) throws IOException {
+        ArrayList<Path> files = new ArrayList<>();
+        for (int i = 0; i < numOfTempFiles; ++i) {
+            files.add(Paths.get(tmpDir, String.format(fileName, 0, i)));
+        }
+
+        // Every partition, and every group merged in parallel, opens all it's files, so keep the total number of open
+        // files at about M
+        int maxFilesPerMerge = Math.max(2, M / numOfPartitions);
+        int step = 0;
+        int[] mapping = ordinals;
+        while (files.size() > maxFilesPerMerge) {
+            ArrayList<Path> merged = new ArrayList<>();
+            ArrayList<Callable<Void>> merges = new ArrayList<>();
+            for (int start = 0; start < files.size(); start += maxFilesPerMerge) {
+                List<Path> group = files.subList(start, Math.min(start + maxFilesPerMerge, files.size()));
+                Path output = Paths.get(tmpDir, String.format(fileName, step + 1, merged.size()));
+                merged.add(output);
+                final int[] groupMapping = mapping;
+                merges.add(() -> {
+                    mergeOnce(output, group, groupMapping, Integer.MIN_VALUE, Integer.MAX_VALUE);
+                    deleteTempFiles(group);
+                    return null;
+                });
             }
+            runAll(merges, executor);
+            files = merged;
+            mapping = null;
+            ++step;
+        }
+
+        if (numOfPartitions == 1) {
+            mergeOnce(Paths.get(out), files, mapping, Integer.MIN_VALUE, Integer.MAX_VALUE);
+            deleteTempFiles(files);
             return;
         }
-        for ( int currStep = 1; currStep <= mergeSteps; currStep++) {
-            numOfFiles = Math.ceil(numOfFiles / M);
-
-            int start = 0;
-            int end = start + M;
-            for (int outputFileIndex = 0; outputFileIndex < numOfFiles; outputFileIndex++){
-                if ((currStep == mergeSteps) && (outputFileIndex == (numOfFiles - 1))) {
-                    outputFileName = out;
-                } else {
-                    outputFileName = Paths.get(tmpDir, String.format(fileName, currStep, outputFileIndex)).toString();
-                }
-                mergeOnce(outputFileName, tmpPath, start, end , fileName, currStep - 1);
-                start = end;
-                end += M;
+
+        int[] boundaries = partitionBoundaries(files, mapping, numOfPartitions);
+        ArrayList<Path> partitions = new ArrayList<>();
+        ArrayList<Callable<Void>> merges = new ArrayList<>();
+        for (int i = 0; i < numOfPartitions; ++i) {
+            Path output = Paths.get(tmpDir, String.format(fileName, step + 1, i));
+            partitions.add(output);
+            final List<Path> inputs = files;
+            final int[] partitionMapping = mapping;
+            final int from = boundaries[i], to = boundaries[i + 1];
+            merges.add(() -> {
+                mergeOnce(output, inputs, partitionMapping, from, to);
+                return null;
+            });
+        }
+        runAll(merges, executor);
+        deleteTempFiles(files);
+
+        try (RunWriter writer = new RunWriter(Paths.get(out), compress)) {
+            for (Path partition: partitions) {
+                writer.append(partition);
             }
         }
+        deleteTempFiles(partitions);
     }
 
     /**
-     * Merge one chunk of files, starting at 'start' and ending at 'end', to a single merged file.
-     * @param out A single sorted file for the chunk
-     * @param tmpPath the path of the temp files directory
-     * @param start first file to sort
-     * @param end last file to sort
-     * @param fileName The final sorted file name
-     * @param prevStep
+     * Split the terms of the given files to ranges holding about the same amount of lines. The first term of every
+     * block of the files serves as a sample of the terms' distribution.
+     * @param files The files to split
+     * @param mapping The mapping from the files' terms to ordinals, or null if the files are already remapped
+     * @param numOfPartitions The number of ranges
+     * @return An array of numOfPartitions + 1 boundaries, where range i is [boundaries[i], boundaries[i + 1])
+     * @throws IOException
      */
-    private void mergeOnce(String out, String tmpPath, int start, int end, String fileName, int prevStep) {
-        PriorityQueue<ReaderWrapper> heapOfReaders = new PriorityQueue<>();
-
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(new File(out)))) {
-            this.initializeReaders(heapOfReaders, tmpPath, start, end, fileName, prevStep);
+    private static int[] partitionBoundaries(List<Path> files, int[] mapping, int numOfPartitions)
+            throws IOException {
+        int[] samples = new int[0];
+        for (Path file: files) {
+            try (ReaderWrapper reader = new ReaderWrapper(file)) {
+                int[] firstTerms = reader.getBlockFirstTerms();
+                int size = samples.length;
+                samples = Arrays.copyOf(samples, size + firstTerms.length);
+                for (int i = 0; i < firstTerms.length; ++i) {
+                    samples[size + i] = (mapping != null) ? mapping[firstTerms[i]] : firstTerms[i];
+                }
+            }
+        }
+        Arrays.sort(samples);
+
+        int[] boundaries = new int[numOfPartitions + 1];
+        boundaries[0] = Integer.MIN_VALUE;
+        boundaries[numOfPartitions] = Integer.MAX_VALUE;
+        for (int i = 1; i < numOfPartitions; ++i) {
+            boundaries[i] = (samples.length == 0) ?
+                    Integer.MAX_VALUE : samples[(int) ((long) i * samples.length / numOfPartitions)];
+        }
+        return boundaries;
+    }
 
-            // While there are more lines left, write the next minimal line to the output
-            while (!heapOfReaders.isEmpty()) {
-                ReaderWrapper minReader = heapOfReaders.poll();
-                writer.write(minReader.getCurrLine().toString());
-                writer.newLine();
-                if (minReader.advancePtr()){
-                    heapOfReaders.add(minReader);
+    /**
+     * Run all the given tasks and wait for them to finish.
+     * @param tasks The tasks to run
+     * @param executor The executor to run the tasks on, or null to run them on the calling thread
+     * @throws IOException
+     */
+    private static void runAll(List<Callable<Void>> tasks, ExecutorService executor) throws IOException {
+        try {
+            if (executor == null) {
+                for (Callable<Void> task: tasks) {
+                    task.call();
                 }
+                return;
+            }
+            for (Future<Void> future: executor.invokeAll(tasks)) {
+                future.get();
             }
-            writer.flush();
-            deleteTempFiles(start, end, fileName, prevStep);
         } catch (IOException e) {
-            System.err.println(e.getMessage());
+            throw e;
+        } catch (Exception e) {
+            throw new IOException(e);
         }
     }
 
     /**
-     * Initialize an array of readers to read from the files.
-     * @param heapOfReaders An object wrapping readers from file as a minimum heap
-     * @param tmpPath the path of the temp files directory
-     * @param endingFileIndex last file to read from
-     * @param startingFileIndex first file to read from
-     * @param fileName The final sorted file name
+     * Merge the lines of a range of terms from the given files to a single merged file.
+     * @param out A single sorted file for the files
+     * @param inputs The files to merge
+     * @param ordinals The mapping from provisional id to sorted ordinal, or null if the files are already remapped
+     * @param fromTerm The first term to merge (after mapping)
+     * @param toTerm The term to stop at (after mapping), exclusive
      * @throws IOException
      */
-    private void initializeReaders(PriorityQueue<ReaderWrapper> heapOfReaders, String tmpPath,
-                                   int startingFileIndex, int endingFileIndex, String fileName, int prevStep)
+    private void mergeOnce(Path out, List<Path> inputs, int[] ordinals, int fromTerm, int toTerm)
             throws IOException {
-        for (int i = startingFileIndex; i < endingFileIndex; i++) {
-            Path filePath = Paths.get(tmpPath, String.format(fileName, prevStep, i));
-            if (Files.exists(filePath)){
-                BufferedReader br = new BufferedReader(new FileReader(filePath.toFile()));
-                String line = br.readLine();
-                if (line != null){
-                    heapOfReaders.add(new ReaderWrapper(br, new Line(line)));
+        PriorityQueue<ReaderWrapper> heapOfReaders = new PriorityQueue<>();
+
+        try (RunWriter writer = new RunWriter(out, compress)) {
+            for (Path input: inputs) {
+                ReaderWrapper reader = new ReaderWrapper(input, ordinals, fromTerm, toTerm);
+                if (reader.advancePtr()) {
+                    heapOfReaders.add(reader);
+                }
+            }
+
+            // While there are more lines left, write the next minimal line to the output
+            while (!heapOfReaders.isEmpty()) {
+                ReaderWrapper minReader = heapOfReaders.poll();
+                writer.write(minReader.getTerm(), minReader.getReviewId(), minReader.getFrequency());
+                if (minReader.advancePtr()){
+                    heapOfReaders.add(minReader);
                 }
-            }else{
-                break;
+            }
+        } finally {
+            for (ReaderWrapper reader: heapOfReaders) {
+                reader.close();
             }
         }
     }
 
     /**
-     * Delete the temp files created in the sorting process
-     * @param start first file to delete
-     * @param end last file to delete
-     * @param fileName The file name to delete. this is a template
-     * @param prevStep this is required for the file name's template
+     * Delete the given temp files created in the sorting process
+     * @param files The files to delete
      */
-    private void deleteTempFiles(int start, int end, String fileName, int prevStep) {
+    private static void deleteTempFiles(List<Path> files) {
         try {
-            for (;start < end; ++start) {
-                Files.deleteIfExists(Paths.get(tmpDir, String.format(fileName, prevStep, start)));
+            for (Path file: files) {
+                Files.deleteIfExists(file);
             }
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
-}
\ No newline at end of file
+}
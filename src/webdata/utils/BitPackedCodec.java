@@ -0,0 +1,32 @@
+package webdata.utils;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A codec of lists of non-negative ints that bit packs all values to the number of bits of the largest one.
+ * A list is stored as: bits (1 byte) and the packed values. A list of zeros, such as the frequencies of a term that
+ * appears once in every review, takes a single byte.
+ */
+public class BitPackedCodec implements IntCodec {
+
+    @Override
+    public int maxEncodedSize(int numOfValues) {
+        return 1 + BitPacker.packedSize(numOfValues, 32);
+    }
+
+    @Override
+    public int encode(int[] values, int numOfValues, byte[] encoded, int offset) {
+        int or = 0;
+        for (int i = 0; i < numOfValues; ++i) {
+            or |= values[i];
+        }
+        int bits = BitPacker.bitsRequired(or);
+        encoded[offset] = (byte) bits;
+        return BitPacker.pack(values, 0, numOfValues, bits, encoded, offset + 1);
+    }
+
+    @Override
+    public int decode(ByteBuffer encoded, int offset, int numOfValues, int[] values) {
+        return BitPacker.unpack(encoded, offset + 1, numOfValues, encoded.get(offset), values, 0);
+    }
+}
@@ -0,0 +1,153 @@
+package webdata.utils;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A static class to pack ints to a fixed number of bits each, least significant bits first.
+ */
+final class BitPacker {
+
+    /**
+     * Empty and private constructor to make this class static.
+     */
+    private BitPacker() {}
+
+    /**
+     * Return the number of bits needed to hold the given non-negative value
+     */
+    static int bitsRequired(int value) {
+        return 32 - Integer.numberOfLeadingZeros(value);
+    }
+
+    /**
+     * Return the number of bytes taken by the given number of values packed to the given number of bits
+     */
+    static int packedSize(int numOfValues, int bits) {
+        return (int) (((long) numOfValues * bits + 7) >>> 3);
+    }
+
+    /**
+     * Pack the lower bits of a range of values.
+     * @param values The values to pack
+     * @param from The index of the first value
+     * @param numOfValues The number of values
+     * @param bits The number of bits of every value, up to 32
+     * @param packed The array to pack to
+     * @param offset The offset in packed to start from
+     * @return The offset after the end of the packed values
+     */
+    static int pack(int[] values, int from, int numOfValues, int bits, byte[] packed, int offset) {
+        if (bits == 0) {
+            return offset;
+        }
+        long mask = (1L << bits) - 1;
+        long buffer = 0;
+        int bufferBits = 0;
+        int pos = offset;
+        for (int i = from; i < from + numOfValues; ++i) {
+            buffer |= (values[i] & mask) << bufferBits;
+            bufferBits += bits;
+            while (bufferBits >= 8) {
+                packed[pos++] = (byte) buffer;
+                buffer >>>= 8;
+                bufferBits -= 8;
+            }
+        }
+        if (bufferBits > 0) {
+            packed[pos++] = (byte) buffer;
+        }
+        return pos;
+    }
+
+    /**
+     * Unpack a range of values.
+     * @param packed The packed values
+     * @param offset The offset of the first packed value
+     * @param numOfValues The number of values
+     * @param bits The number of bits of every value, up to 32
+     * @param values The array to unpack to
+     * @param from The index in values of the first value
+     * @return The offset after the end of the packed values
+     */
+    static int unpack(ByteBuffer packed, int offset, int numOfValues, int bits, int[] values, int from) {
+        if (bits == 0) {
+            for (int i = from; i < from + numOfValues; ++i) {
+                values[i] = 0;
+            }
+            return offset;
+        }
+        long mask = (1L << bits) - 1;
+        long buffer = 0;
+        int bufferBits = 0;
+        int pos = offset;
+        for (int i = from; i < from + numOfValues; ++i) {
+            while (bufferBits < bits) {
+                buffer |= (packed.get(pos++) & 0xFFL) << bufferBits;
+                bufferBits += 8;
+            }
+            values[i] = (int) (buffer & mask);
+            buffer >>>= bits;
+            bufferBits -= bits;
+        }
+        return offset + packedSize(numOfValues, bits);
+    }
+
+    /**
+     * Read a single packed value.
+     * @param packed The packed values, starting at index 0 of the buffer
+     * @param index The index of the value
+     * @param bits The number of bits of every value, up to 32
+     * @return The value
+     */
+    static int get(ByteBuffer packed, int index, int bits) {
+        if (bits == 0) {
+            return 0;
+        }
+        long bitPos = (long) index * bits;
+        int pos = (int) (bitPos >>> 3);
+        int shift = (int) (bitPos & 7);
+        long buffer = 0;
+        for (int i = 0; i < (shift + bits + 7) >>> 3; ++i) {
+            buffer |= (packed.get(pos + i) & 0xFFL) << (8 * i);
+        }
+        return (int) ((buffer >>> shift) & ((1L << bits) - 1));
+    }
+
+    /**
+     * Return the number of bytes of the given value as a varint
+     */
+    static int varintSize(int value) {
+        return Math.max(1, (bitsRequired(value) + 6) / 7);
+    }
+
+    /**
+     * Write a varint.
+     * @return The offset after the varint
+     */
+    static int writeVarint(int value, byte[] encoded, int offset) {
+        while ((value & ~0x7F) != 0) {
+            encoded[offset++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        encoded[offset++] = (byte) value;
+        return offset;
+    }
+
+    /**
+     * Read a varint.
+     * @param encoded The encoded bytes
+     * @param pos A single cell holding the offset of the varint, advanced past it
+     * @return The value
+     */
+    static int readVarint(ByteBuffer encoded, int[] pos) {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = encoded.get(pos[0]++);
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        return value;
+    }
+}
@@ -0,0 +1,195 @@
+package webdata.utils;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Iterates over a posting list encoded by PostingCodec, decoding it a block at a time.
+ * The list is read in place, with absolute positions only, so it may be a part of a mapped file shared by other readers,
+ * and the iterator takes the same memory whatever the length of the list.
+ * The review ids of a block are decoded when the iterator enters it, and it's frequencies only when they're asked for.
+ * advance uses the skip table of the list to jump over the blocks that can't hold the target, without decoding them.
+ * The largest frequency of a block is read from the skip table, except in a list of a single block, which has none.
+ */
+public class BlockPostingsIterator implements PostingsIterator {
+
+    private static final int BLOCK_SIZE = PostingCodec.BLOCK_SIZE;
+
+    private IntCodec reviewCodec;
+    private IntCodec frequencyCodec;
+    private boolean hasFrequencies;
+
+    private ByteBuffer encoded;
+    private int offset;
+    private int numOfPostings;
+    private int numOfBlocks;
+    private int blocksStart;
+
+    /* The current block */
+    private int[] reviews = new int[BLOCK_SIZE];
+    private int[] frequencies;
+    private int block = -1;
+    private int blockLength;
+    private int frequenciesPos;
+    private boolean frequenciesDecoded;
+    private int index = -1;
+    private int reviewId = -1;
+
+    /**
+     * Constructor
+     * @param codec The codec byte of the list
+     * @param encoded The encoded bytes
+     * @param offset The offset of the list in encoded
+     * @param hasFrequencies Indicates if the list holds frequencies, i.e. it's a list of a token
+     */
+    public BlockPostingsIterator(byte codec, byte[] encoded, int offset, boolean hasFrequencies) {
+        this(codec, ByteBuffer.wrap(encoded), offset, hasFrequencies);
+    }
+
+    /**
+     * Constructor
+     * @param codec The codec byte of the list
+     * @param encoded The encoded bytes, such as a mapped file
+     * @param offset The offset of the list in encoded
+     * @param hasFrequencies Indicates if the list holds frequencies, i.e. it's a list of a token
+     */
+    public BlockPostingsIterator(byte codec, ByteBuffer encoded, int offset, boolean hasFrequencies) {
+        this.reviewCodec = PostingCodec.reviewCodec(codec);
+        this.frequencyCodec = PostingCodec.frequencyCodec(codec);
+        this.hasFrequencies = hasFrequencies;
+        this.encoded = encoded;
+        this.offset = offset;
+        this.numOfPostings = encoded.getInt(offset);
+        this.numOfBlocks = PostingCodec.numOfBlocks(numOfPostings);
+        this.blocksStart = offset + PostingCodec.blocksStart(numOfPostings);
+        if (hasFrequencies) {
+            frequencies = new int[BLOCK_SIZE];
+        }
+    }
+
+    @Override
+    public long cost() { return numOfPostings; }
+
+    @Override
+    public int reviewId() { return reviewId; }
+
+    @Override
+    public int freq() {
+        if (!hasFrequencies) {
+            return 1;
+        }
+        if (!frequenciesDecoded) {
+            frequencyCodec.decode(encoded, frequenciesPos, blockLength, frequencies);
+            for (int i = 0; i < blockLength; ++i) {
+                ++frequencies[i];
+            }
+            frequenciesDecoded = true;
+        }
+        return frequencies[index];
+    }
+
+    @Override
+    public int blockMaxFreq() {
+        if (!hasFrequencies) {
+            return 1;
+        }
+        if (numOfBlocks > 1) {
+            return encoded.getInt(offset + 4 + block * PostingCodec.SKIP_ENTRY_SIZE + 8);
+        }
+        freq();
+        int max = 1;
+        for (int i = 0; i < blockLength; ++i) {
+            max = Math.max(max, frequencies[i]);
+        }
+        return max;
+    }
+
+    @Override
+    public int nextDoc() {
+        if (reviewId == NO_MORE_REVIEWS) {
+            return reviewId;
+        }
+        if (++index >= blockLength) {
+            if (block + 1 >= numOfBlocks) {
+                return reviewId = NO_MORE_REVIEWS;
+            }
+            loadBlock(block + 1);
+            index = 0;
+        }
+        return reviewId = reviews[index];
+    }
+
+    /**
+     * Move to the first review in the list with an id of at least target, past the current review.
+     * The skip table is binary searched for the block of target, so the blocks before it are never decoded.
+     * @param target The review id to advance to
+     * @return The review id, or NO_MORE_REVIEWS if there is none
+     */
+    @Override
+    public int advance(int target) {
+        if (reviewId == NO_MORE_REVIEWS) {
+            return reviewId;
+        }
+        if (target <= reviewId) {
+            target = reviewId + 1;
+        }
+        if (block < 0 && numOfBlocks == 1) {
+            // A list of a single block has no skip table
+            loadBlock(0);
+            index = -1;
+        }
+        if (block < 0 || lastReviewId(block) < target) {
+            // Binary search the skip table for the first of the next blocks that may hold target
+            int low = block + 1;
+            int high = numOfBlocks - 1;
+            if (low > high || lastReviewId(high) < target) {
+                return reviewId = NO_MORE_REVIEWS;
+            }
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (lastReviewId(mid) < target) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            loadBlock(low);
+            index = -1;
+        }
+        // The last review of the block is at least target, so the scan stops in it
+        do {
+            ++index;
+        } while (reviews[index] < target);
+        return reviewId = reviews[index];
+    }
+
+    /**
+     * Return the last review id of the given block. A list of a single block must have it loaded.
+     */
+    private int lastReviewId(int b) {
+        if (numOfBlocks == 1) {
+            return reviews[blockLength - 1];
+        }
+        return encoded.getInt(offset + 4 + b * PostingCodec.SKIP_ENTRY_SIZE);
+    }
+
+    /**
+     * Decode the review ids of the given block.
+     */
+    private void loadBlock(int b) {
+        int pos = blocksStart;
+        int base = 0;
+        if (b > 0) {
+            int entry = offset + 4 + (b - 1) * PostingCodec.SKIP_ENTRY_SIZE;
+            base = encoded.getInt(entry);
+            pos += encoded.getInt(entry + 4);
+        }
+        block = b;
+        blockLength = Math.min(BLOCK_SIZE, numOfPostings - b * BLOCK_SIZE);
+        frequenciesPos = reviewCodec.decode(encoded, pos, blockLength, reviews);
+        frequenciesDecoded = false;
+        for (int i = 0; i < blockLength; ++i) {
+            base += reviews[i] + 1;
+            reviews[i] = base;
+        }
+    }
+}
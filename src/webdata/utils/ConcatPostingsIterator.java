@@ -0,0 +1,60 @@
+package webdata.utils;
+
+/**
+ * Iterates over several posting lists of consecutive, disjoint ranges of review ids as a single list, such as the
+ * lists of a term in the segments of an index.
+ */
+public class ConcatPostingsIterator implements PostingsIterator {
+
+    private PostingsIterator[] lists;
+    private int current = 0;
+    private int reviewId = -1;
+    private long cost = 0;
+
+    /**
+     * Constructor
+     * @param lists The posting lists, in order of their review ids
+     */
+    public ConcatPostingsIterator(PostingsIterator[] lists) {
+        this.lists = lists;
+        for (PostingsIterator list: lists) {
+            cost += list.cost();
+        }
+    }
+
+    @Override
+    public long cost() { return cost; }
+
+    @Override
+    public int reviewId() { return reviewId; }
+
+    @Override
+    public int freq() { return lists[current].freq(); }
+
+    @Override
+    public int blockMaxFreq() { return lists[current].blockMaxFreq(); }
+
+    @Override
+    public int nextDoc() {
+        while (current < lists.length) {
+            reviewId = lists[current].nextDoc();
+            if (reviewId != NO_MORE_REVIEWS) {
+                return reviewId;
+            }
+            ++current;
+        }
+        return reviewId = NO_MORE_REVIEWS;
+    }
+
+    @Override
+    public int advance(int target) {
+        while (current < lists.length) {
+            reviewId = lists[current].advance(target);
+            if (reviewId != NO_MORE_REVIEWS) {
+                return reviewId;
+            }
+            ++current;
+        }
+        return reviewId = NO_MORE_REVIEWS;
+    }
+}
@@ -0,0 +1,135 @@
+package webdata.utils;
+
+/**
+ * A posting list decoded to primitive arrays, to be iterated any number of times with no decoding, such as by the
+ * readers of a PostingsCache. The largest frequency of every block of PostingCodec.BLOCK_SIZE postings is kept as well,
+ * as in the skip table of the encoded list.
+ */
+public class DecodedPostings {
+
+    private static final int BLOCK_SIZE = PostingCodec.BLOCK_SIZE;
+
+    private int[] reviews;
+    private int[] frequencies;
+    private int[] blockMaxFrequencies;
+    private int size;
+
+    /**
+     * Decode a whole posting list.
+     * @param postings An iterator at the start of the list
+     * @param size The number of postings in the list
+     * @param hasFrequencies Indicates if the list holds frequencies, i.e. it's a list of a token
+     */
+    public DecodedPostings(PostingsIterator postings, int size, boolean hasFrequencies) {
+        this.size = size;
+        reviews = new int[size];
+        if (hasFrequencies) {
+            frequencies = new int[size];
+            blockMaxFrequencies = new int[(size + BLOCK_SIZE - 1) / BLOCK_SIZE];
+        }
+        for (int i = 0; i < size; ++i) {
+            reviews[i] = postings.nextDoc();
+            if (hasFrequencies) {
+                frequencies[i] = postings.freq();
+                blockMaxFrequencies[i / BLOCK_SIZE] = Math.max(blockMaxFrequencies[i / BLOCK_SIZE], frequencies[i]);
+            }
+        }
+    }
+
+    /**
+     * Return the number of postings
+     */
+    public int size() { return size; }
+
+    /**
+     * Return the number of bytes the decoded list takes in memory, about
+     */
+    public long bytes() {
+        long bytes = 64 + 4L * reviews.length;
+        if (frequencies != null) {
+            bytes += 4L * (frequencies.length + blockMaxFrequencies.length);
+        }
+        return bytes;
+    }
+
+    /**
+     * Return the number of bytes a list of the given number of postings takes once decoded, about
+     */
+    public static long bytesOf(int size, boolean hasFrequencies) {
+        long bytes = 64 + 4L * size;
+        if (hasFrequencies) {
+            bytes += 4L * (size + (size + BLOCK_SIZE - 1) / BLOCK_SIZE);
+        }
+        return bytes;
+    }
+
+    /**
+     * Return a new iterator over the list
+     */
+    public PostingsIterator iterator() {
+        return new Iterator();
+    }
+
+    /**
+     * Iterates over the arrays of a decoded list. advance gallops from the current review, so short jumps are cheap.
+     */
+    private class Iterator implements PostingsIterator {
+
+        private int index = -1;
+        private int reviewId = -1;
+
+        @Override
+        public long cost() { return size; }
+
+        @Override
+        public int reviewId() { return reviewId; }
+
+        @Override
+        public int freq() {
+            return (frequencies != null) ? frequencies[index] : 1;
+        }
+
+        @Override
+        public int blockMaxFreq() {
+            return (frequencies != null) ? blockMaxFrequencies[index / BLOCK_SIZE] : 1;
+        }
+
+        @Override
+        public int nextDoc() {
+            if (reviewId == NO_MORE_REVIEWS) {
+                return reviewId;
+            }
+            if (++index >= size) {
+                return reviewId = NO_MORE_REVIEWS;
+            }
+            return reviewId = reviews[index];
+        }
+
+        @Override
+        public int advance(int target) {
+            if (reviewId == NO_MORE_REVIEWS) {
+                return reviewId;
+            }
+            // Find a range holding target by doubling steps, then binary search it
+            int low = index + 1;
+            int step = 1;
+            int high = low;
+            while (high < size && reviews[high] < target) {
+                low = high + 1;
+                high += step;
+                step <<= 1;
+            }
+            high = Math.min(high, size);
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (reviews[mid] < target) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            index = low;
+            return reviewId = (index < size) ? reviews[index] : NO_MORE_REVIEWS;
+        }
+    }
+}
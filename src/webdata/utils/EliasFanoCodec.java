@@ -0,0 +1,86 @@
+package webdata.utils;
+
+import java.nio.ByteBuffer;
+
+/**
+ * An Elias-Fano codec of lists of non-negative ints, suited to dense lists of review id gaps.
+ * The values are summed to a non decreasing sequence, of which every element is split to it's lower l bits, which are
+ * bit packed, and it's higher bits, which are stored in unary in a bit array: element i sets the bit at
+ * (element >>> l) + i. With l chosen by the ratio between the last element and the number of elements, the list takes
+ * at most 2 + l bits per value.
+ * A list is stored as: l (1 byte), the number of bytes of the bit array (varint), the packed lower bits and the bit
+ * array.
+ */
+public class EliasFanoCodec implements IntCodec {
+
+    @Override
+    public int maxEncodedSize(int numOfValues) {
+        // The sum of the values is below 2^31, so l is at most 31, and (element >>> l) is below 2 * numOfValues
+        return 6 + BitPacker.packedSize(numOfValues, 31) + BitPacker.packedSize(3 * numOfValues, 1);
+    }
+
+    @Override
+    public int encode(int[] values, int numOfValues, byte[] encoded, int offset) {
+        long last = 0;
+        for (int i = 0; i < numOfValues; ++i) {
+            last += values[i];
+        }
+        int lowBits = (last > numOfValues) ? 63 - Long.numberOfLeadingZeros(last / numOfValues) : 0;
+        int upperBytes = BitPacker.packedSize((int) (last >>> lowBits) + numOfValues, 1);
+
+        encoded[offset] = (byte) lowBits;
+        int pos = BitPacker.writeVarint(upperBytes, encoded, offset + 1);
+
+        // The lower bits, packed as the elements are summed
+        long lowMask = (1L << lowBits) - 1;
+        long buffer = 0;
+        int bufferBits = 0;
+        int upperPos = pos + BitPacker.packedSize(numOfValues, lowBits);
+        for (int i = upperPos; i < upperPos + upperBytes; ++i) {
+            encoded[i] = 0;
+        }
+        long element = 0;
+        for (int i = 0; i < numOfValues; ++i) {
+            element += values[i];
+            if (lowBits > 0) {
+                buffer |= (element & lowMask) << bufferBits;
+                bufferBits += lowBits;
+                while (bufferBits >= 8) {
+                    encoded[pos++] = (byte) buffer;
+                    buffer >>>= 8;
+                    bufferBits -= 8;
+                }
+            }
+            long bit = (element >>> lowBits) + i;
+            encoded[upperPos + (int) (bit >>> 3)] |= (byte) (1 << (bit & 7));
+        }
+        if (bufferBits > 0) {
+            encoded[pos] = (byte) buffer;
+        }
+        return upperPos + upperBytes;
+    }
+
+    @Override
+    public int decode(ByteBuffer encoded, int offset, int numOfValues, int[] values) {
+        int lowBits = encoded.get(offset);
+        int[] pos = {offset + 1};
+        int upperBytes = BitPacker.readVarint(encoded, pos);
+        int upperPos = BitPacker.unpack(encoded, pos[0], numOfValues, lowBits, values, 0);
+
+        // Scan the set bits of the bit array, where the i'th set bit is at (element >>> l) + i
+        int i = 0;
+        int prev = 0;
+        for (int b = 0; b < upperBytes && i < numOfValues; ++b) {
+            int bits = encoded.get(upperPos + b) & 0xFF;
+            while (bits != 0 && i < numOfValues) {
+                int bit = (b << 3) + Integer.numberOfTrailingZeros(bits);
+                bits &= bits - 1;
+                int element = ((bit - i) << lowBits) | values[i];
+                values[i] = element - prev;
+                prev = element;
+                ++i;
+            }
+        }
+        return upperPos + upperBytes;
+    }
+}
@@ -0,0 +1,131 @@
+package webdata.utils;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A codec of lists of non-negative ints using varint group encoding.
+ * The values are stored in groups of 4. Every group starts with a control byte of the format (--|--|--|--) holding the
+ * number of bytes of each value minus 1, followed by the values themselves, big endian. A value takes the fewest bytes
+ * that hold it with a sign bit, so values of 128 and up take 2 bytes. The last group may be shorter, in which case it's
+ * control byte holds only the lengths of it's values, in the lower bits.
+ * Decoding looks the control byte of every group up in a precomputed table holding the length of every value.
+ */
+public class GroupVarintCodec implements IntCodec {
+
+    /* For every control byte of a full group, the length of it's i'th value is at VALUE_LENGTHS[(control << 2) + i] */
+    private static final byte[] VALUE_LENGTHS = new byte[256 * 4];
+
+    static {
+        for (int control = 0; control < 256; ++control) {
+            for (int i = 0; i < 4; ++i) {
+                VALUE_LENGTHS[(control << 2) + i] = (byte) (((control >> (2 * (3 - i))) & 3) + 1);
+            }
+        }
+    }
+
+    @Override
+    public int maxEncodedSize(int numOfValues) {
+        return (numOfValues + 3) / 4 + 4 * numOfValues;
+    }
+
+    /**
+     * Return the number of bytes encoding the given value.
+     */
+    private static int valueLength(int value) {
+        if (value < (1 << 7)) {
+            return 1;
+        }
+        if (value < (1 << 15)) {
+            return 2;
+        }
+        return (value < (1 << 23)) ? 3 : 4;
+    }
+
+    @Override
+    public int encode(int[] values, int numOfValues, byte[] encoded, int offset) {
+        int pos = offset;
+        for (int i = 0; i < numOfValues; i += 4) {
+            int groupSize = Math.min(4, numOfValues - i);
+            int controlPos = pos++;
+            int controlByte = 0;
+            for (int j = i; j < i + groupSize; ++j) {
+                int length = valueLength(values[j]);
+                controlByte = (controlByte << 2) | (length - 1);
+                pos = writeInt(values[j], length, encoded, pos);
+            }
+            encoded[controlPos] = (byte) controlByte;
+        }
+        return pos;
+    }
+
+    @Override
+    public int decode(ByteBuffer encoded, int offset, int numOfValues, int[] values) {
+        int pos = offset;
+        int fullGroups = numOfValues & ~3;
+        for (int i = 0; i < fullGroups; i += 4) {
+            int control = (encoded.get(pos++) & 0xFF) << 2;
+            for (int j = 0; j < 4; ++j) {
+                int length = VALUE_LENGTHS[control + j];
+                values[i + j] = readInt(encoded, pos, length);
+                pos += length;
+            }
+        }
+        if (fullGroups < numOfValues) {
+            // The lengths of the last group are in the lower bits, so shift them to the place of a full group's
+            int groupSize = numOfValues - fullGroups;
+            int control = ((encoded.get(pos++) << (2 * (4 - groupSize))) & 0xFF) << 2;
+            for (int j = 0; j < groupSize; ++j) {
+                int length = VALUE_LENGTHS[control + j];
+                values[fullGroups + j] = readInt(encoded, pos, length);
+                pos += length;
+            }
+        }
+        return pos;
+    }
+
+    /**
+     * Read a big endian int of the given number of bytes.
+     */
+    static int readInt(byte[] values, int offset, int numOfBytes) {
+        switch (numOfBytes) {
+            case 1:
+                return values[offset] & 0xFF;
+            case 2:
+                return ((values[offset] & 0xFF) << 8) | (values[offset + 1] & 0xFF);
+            case 3:
+                return ((values[offset] & 0xFF) << 16) | ((values[offset + 1] & 0xFF) << 8) |
+                       (values[offset + 2] & 0xFF);
+            default:
+                return ((values[offset] & 0xFF) << 24) | ((values[offset + 1] & 0xFF) << 16) |
+                       ((values[offset + 2] & 0xFF) << 8) | (values[offset + 3] & 0xFF);
+        }
+    }
+
+    /**
+     * Read a big endian int of the given number of bytes from a buffer, with an absolute position.
+     */
+    static int readInt(ByteBuffer values, int offset, int numOfBytes) {
+        switch (numOfBytes) {
+            case 1:
+                return values.get(offset) & 0xFF;
+            case 2:
+                return ((values.get(offset) & 0xFF) << 8) | (values.get(offset + 1) & 0xFF);
+            case 3:
+                return ((values.get(offset) & 0xFF) << 16) | ((values.get(offset + 1) & 0xFF) << 8) |
+                       (values.get(offset + 2) & 0xFF);
+            default:
+                return values.getInt(offset);
+        }
+    }
+
+    /**
+     * Write a big endian int of the given number of bytes.
+     * @return The offset after the written bytes
+     */
+    static int writeInt(int value, int numOfBytes, byte[] encoded, int offset) {
+        for (int i = numOfBytes - 1; i >= 0; --i) {
+            encoded[offset++] = (byte) (value >>> (8 * i));
+        }
+        return offset;
+    }
+}
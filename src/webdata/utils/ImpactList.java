@@ -0,0 +1,162 @@
+package webdata.utils;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * An impact ordered posting list of a token, in which the postings are grouped by the frequency of the token in their
+ * reviews, from the highest frequency to the lowest. As the lnn score a review gets from a token only depends on the
+ * frequency, every group holds the reviews of a single impact, and a query can score the postings of the highest
+ * impacts first, and stop whenever it likes.
+ * The list is stored as: the number of groups (4 bytes, big endian), a table holding the frequency (4 bytes), the codec
+ * byte (4 bytes) and the end offset (4 bytes, from the start of the first group) of every group, and the groups. Every
+ * group is a list of it's review ids, in increasing order, encoded by PostingCodec with no frequencies.
+ * The list is read in place, so it may be a part of a mapped file shared by other readers.
+ */
+public class ImpactList {
+
+    private static final int GROUP_ENTRY_SIZE = 12;
+
+    private ByteBuffer encoded;
+    private int offset;
+    private int numOfGroups;
+    private int groupsStart;
+
+    /**
+     * Constructor
+     * @param encoded The encoded bytes, such as a mapped file
+     * @param offset The offset of the list in encoded
+     */
+    public ImpactList(ByteBuffer encoded, int offset) {
+        this.encoded = encoded;
+        this.offset = offset;
+        this.numOfGroups = encoded.getInt(offset);
+        this.groupsStart = offset + 4 + numOfGroups * GROUP_ENTRY_SIZE;
+    }
+
+    /**
+     * Return the number of groups, i.e. the number of distinct frequencies of the token
+     */
+    public int numOfGroups() { return numOfGroups; }
+
+    /**
+     * Return the frequency of the token in the reviews of the g'th group. The frequencies decrease with g.
+     */
+    public int frequency(int g) {
+        return encoded.getInt(offset + 4 + g * GROUP_ENTRY_SIZE);
+    }
+
+    /**
+     * Return the number of reviews in the g'th group
+     */
+    public int size(int g) {
+        return encoded.getInt(groupStart(g));
+    }
+
+    /**
+     * Return an iterator over the reviews of the g'th group, in increasing order of their ids
+     */
+    public PostingsIterator postings(int g) {
+        byte codec = (byte) encoded.getInt(offset + 4 + g * GROUP_ENTRY_SIZE + 4);
+        return new BlockPostingsIterator(codec, encoded, groupStart(g), false);
+    }
+
+    /**
+     * Return the offset in encoded of the g'th group
+     */
+    private int groupStart(int g) {
+        if (g == 0) {
+            return groupsStart;
+        }
+        return groupsStart + encoded.getInt(offset + 4 + (g - 1) * GROUP_ENTRY_SIZE + 8);
+    }
+
+    /**
+     * Encodes the impact ordered lists of tokens, one at a time.
+     */
+    public static class Encoder {
+
+        private PostingCodec codec = new PostingCodec();
+
+        /* The last list encoded */
+        private byte[] encoded = new byte[1 << 10];
+        private int size;
+
+        /* Buffers for encoding */
+        private long[] keys = new long[1 << 8];
+        private int[] groupReviews = new int[1 << 8];
+
+        /**
+         * Encode a posting list in impact order.
+         * @param reviews The sorted review ids
+         * @param frequencies The frequencies
+         * @param numOfPostings The number of postings
+         */
+        public void encode(int[] reviews, int[] frequencies, int numOfPostings) {
+            if (numOfPostings > keys.length) {
+                keys = new long[Math.max(numOfPostings, keys.length * 2)];
+                groupReviews = new int[keys.length];
+            }
+            // Order the postings by decreasing frequency, and then by increasing review id
+            int numOfGroups = 0;
+            for (int i = 0; i < numOfPostings; ++i) {
+                keys[i] = ((long) (Integer.MAX_VALUE - frequencies[i]) << 32) | reviews[i];
+            }
+            Arrays.sort(keys, 0, numOfPostings);
+            for (int i = 0; i < numOfPostings; ++i) {
+                if (i == 0 || frequencyOf(keys[i]) != frequencyOf(keys[i - 1])) {
+                    ++numOfGroups;
+                }
+            }
+
+            int groupsStart = 4 + numOfGroups * GROUP_ENTRY_SIZE;
+            ensureCapacity(groupsStart);
+            GroupVarintCodec.writeInt(numOfGroups, 4, encoded, 0);
+            size = groupsStart;
+            int g = 0;
+            for (int start = 0; start < numOfPostings; ++g) {
+                int frequency = frequencyOf(keys[start]);
+                int end = start;
+                while (end < numOfPostings && frequencyOf(keys[end]) == frequency) {
+                    groupReviews[end - start] = (int) keys[end];
+                    ++end;
+                }
+                codec.encode(groupReviews, null, end - start);
+                ensureCapacity(size + codec.getSize());
+                System.arraycopy(codec.getEncoded(), 0, encoded, size, codec.getSize());
+                size += codec.getSize();
+                int entry = 4 + g * GROUP_ENTRY_SIZE;
+                GroupVarintCodec.writeInt(frequency, 4, encoded, entry);
+                GroupVarintCodec.writeInt(codec.getCodec(), 4, encoded, entry + 4);
+                GroupVarintCodec.writeInt(size - groupsStart, 4, encoded, entry + 8);
+                start = end;
+            }
+        }
+
+        /**
+         * Return the frequency of a posting's sort key
+         */
+        private static int frequencyOf(long key) {
+            return Integer.MAX_VALUE - (int) (key >>> 32);
+        }
+
+        /**
+         * Grow the encoded buffer to hold at least the given number of bytes, keeping it's content.
+         */
+        private void ensureCapacity(int capacity) {
+            if (capacity > encoded.length) {
+                encoded = Arrays.copyOf(encoded, Math.max(capacity, encoded.length * 2));
+            }
+        }
+
+        /**
+         * Return the last list encoded. It's valid up to getSize().
+         */
+        public byte[] getEncoded() { return encoded; }
+
+        /**
+         * Return the number of bytes of the last list encoded
+         */
+        public int getSize() { return size; }
+    }
+}
@@ -0,0 +1,210 @@
+package webdata.utils;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+
+/**
+ * A versioned binary file of primitive arrays, which is memory mapped and used in place instead of being deserialized.
+ * The file starts with a header: a magic number, the format version, the kind of the file and the number of sections,
+ * followed by a table of contents holding the offset and the length in bytes of every section. The sections follow,
+ * every one aligned to 8 bytes. All values are big endian.
+ * Every section is mapped on it's own, so a section must be smaller than 2GB while the file may be larger.
+ */
+public class IndexFile {
+
+    public static final int VERSION = 5;
+    private static final int MAGIC = 0x57444958;  // "WDIX"
+    private static final int HEADER_SIZE = 16;
+    private static final int TOC_ENTRY_SIZE = 16;
+    private static final int ALIGNMENT = 8;
+
+    private ByteBuffer[] sections;
+
+    /**
+     * Map the given file.
+     * @param path The path of the file
+     * @param kind The kind of file expected
+     * @throws IOException If the file can't be read, or is not of the expected kind and version
+     */
+    public IndexFile(String path, int kind) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            readFully(channel, header, 0);
+            if (header.getInt(0) != MAGIC) {
+                throw new IOException(path + " is not an index file");
+            }
+            if (header.getInt(4) != VERSION) {
+                throw new IOException(path + " has an unsupported format version " + header.getInt(4));
+            }
+            if (header.getInt(8) != kind) {
+                throw new IOException(path + " is not of the expected kind");
+            }
+            ByteBuffer toc = ByteBuffer.allocate(header.getInt(12) * TOC_ENTRY_SIZE);
+            readFully(channel, toc, HEADER_SIZE);
+            sections = new ByteBuffer[header.getInt(12)];
+            for (int i = 0; i < sections.length; ++i) {
+                long offset = toc.getLong(i * TOC_ENTRY_SIZE);
+                long length = toc.getLong(i * TOC_ENTRY_SIZE + 8);
+                sections[i] = channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+            }
+        }
+    }
+
+    /**
+     * Read from a channel until the buffer is full.
+     */
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long pos) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, pos + buffer.position()) < 0) {
+                throw new EOFException();
+            }
+        }
+    }
+
+    /**
+     * Return the i'th section as bytes
+     */
+    public ByteBuffer bytes(int i) { return sections[i].duplicate(); }
+
+    /**
+     * Return the i'th section as shorts
+     */
+    public ShortBuffer shorts(int i) { return sections[i].asShortBuffer(); }
+
+    /**
+     * Return the i'th section as ints
+     */
+    public IntBuffer ints(int i) { return sections[i].asIntBuffer(); }
+
+    /**
+     * Return the i'th section as longs
+     */
+    public LongBuffer longs(int i) { return sections[i].asLongBuffer(); }
+
+    /**
+     * Writes an index file. The sections are added in order, and are numbered from 0. The sections are only referenced
+     * until the file is written, and are then streamed to it.
+     */
+    public static class Writer {
+
+        private int kind;
+        private ArrayList<Buffer> sections = new ArrayList<>();
+
+        /**
+         * Constructor
+         * @param kind The kind of the file, checked when it's opened
+         */
+        public Writer(int kind) {
+            this.kind = kind;
+        }
+
+        /**
+         * Add a section. The whole buffer is written, from 0 to it's limit, regardless of it's position.
+         * @param section A ByteBuffer, ShortBuffer, IntBuffer or LongBuffer
+         */
+        public void add(Buffer section) {
+            sections.add(section);
+        }
+
+        /**
+         * Return the number of bytes of a section
+         */
+        private static long sizeOf(Buffer section) {
+            if (section instanceof ShortBuffer) {
+                return (long) section.limit() * Short.BYTES;
+            }
+            if (section instanceof IntBuffer) {
+                return (long) section.limit() * Integer.BYTES;
+            }
+            if (section instanceof LongBuffer) {
+                return (long) section.limit() * Long.BYTES;
+            }
+            return section.limit();
+        }
+
+        /**
+         * Return the given offset, rounded up to the alignment of the sections
+         */
+        private static long align(long offset) {
+            return (offset + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+        }
+
+        /**
+         * Write the file.
+         * @param path The path of the file
+         * @throws IOException
+         */
+        public void write(String path) throws IOException {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE + sections.size() * TOC_ENTRY_SIZE);
+            header.putInt(MAGIC).putInt(VERSION).putInt(kind).putInt(sections.size());
+            long offset = align(header.capacity());
+            for (Buffer section: sections) {
+                header.putLong(offset).putLong(sizeOf(section));
+                offset = align(offset + sizeOf(section));
+            }
+            header.flip();
+
+            try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.CREATE,
+                                                        StandardOpenOption.WRITE,
+                                                        StandardOpenOption.TRUNCATE_EXISTING)) {
+                writeFully(channel, header, 0);
+                offset = align(header.capacity());
+                ByteBuffer chunk = ByteBuffer.allocate(1 << 16);
+                for (Buffer section: sections) {
+                    long pos = offset;
+                    Buffer values = section.duplicate().rewind();
+                    while (values.hasRemaining()) {
+                        chunk.clear();
+                        fill(chunk, values);
+                        chunk.flip();
+                        pos += writeFully(channel, chunk, pos);
+                    }
+                    offset = align(offset + sizeOf(section));
+                }
+            }
+        }
+
+        /**
+         * Move as many values as fit from a section to a chunk of bytes.
+         */
+        private static void fill(ByteBuffer chunk, Buffer values) {
+            int n;
+            if (values instanceof ShortBuffer) {
+                n = Math.min(values.remaining(), chunk.remaining() / Short.BYTES);
+                ShortBuffer part = ((ShortBuffer) values).slice().limit(n);
+                chunk.asShortBuffer().put(part);
+                chunk.position(chunk.position() + n * Short.BYTES);
+            } else if (values instanceof IntBuffer) {
+                n = Math.min(values.remaining(), chunk.remaining() / Integer.BYTES);
+                IntBuffer part = ((IntBuffer) values).slice().limit(n);
+                chunk.asIntBuffer().put(part);
+                chunk.position(chunk.position() + n * Integer.BYTES);
+            } else if (values instanceof LongBuffer) {
+                n = Math.min(values.remaining(), chunk.remaining() / Long.BYTES);
+                LongBuffer part = ((LongBuffer) values).slice().limit(n);
+                chunk.asLongBuffer().put(part);
+                chunk.position(chunk.position() + n * Long.BYTES);
+            } else {
+                n = Math.min(values.remaining(), chunk.remaining());
+                chunk.put(((ByteBuffer) values).slice().limit(n));
+            }
+            values.position(values.position() + n);
+        }
+
+        /**
+         * Write a buffer to a channel at the given position.
+         * @return The number of bytes written
+         */
+        private static int writeFully(FileChannel channel, ByteBuffer buffer, long pos) throws IOException {
+            int written = 0;
+            while (buffer.hasRemaining()) {
+                written += channel.write(buffer, pos + written);
+            }
+            return written;
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package webdata.utils;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A codec of lists of non-negative ints. The number of values is not stored by the codec, and must be known when
+ * decoding.
+ */
+public interface IntCodec {
+
+    /**
+     * Return the maximal number of bytes this codec encodes the given number of values to.
+     */
+    int maxEncodedSize(int numOfValues);
+
+    /**
+     * Encode a list of values.
+     * @param values The values to encode
+     * @param numOfValues The number of values to encode, from the start of values
+     * @param encoded The array to encode to, with at least maxEncodedSize(numOfValues) bytes from offset
+     * @param offset The offset in encoded to start from
+     * @return The offset after the end of the encoded list
+     */
+    int encode(int[] values, int numOfValues, byte[] encoded, int offset);
+
+    /**
+     * Decode a list of values. The buffer is read with absolute positions only, so it may be shared by other readers.
+     * @param encoded The encoded bytes, such as a mapped file
+     * @param offset The offset of the list in encoded
+     * @param numOfValues The number of values in the list
+     * @param values The array to decode to, at least numOfValues long
+     * @return The offset after the end of the list
+     */
+    int decode(ByteBuffer encoded, int offset, int numOfValues, int[] values);
+}
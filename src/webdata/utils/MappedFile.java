@@ -0,0 +1,97 @@
+package webdata.utils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A read only file, memory mapped once and shared by all it's readers.
+ * A buffer can't be mapped past 2GB, so the file is mapped in chunks of CHUNK_SIZE bytes. Reads only use absolute
+ * positions and never move the buffers' positions, so any number of threads can read at once without locking.
+ */
+public class MappedFile {
+
+    private static final int CHUNK_SHIFT = 30;
+    private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private MappedByteBuffer[] chunks;
+    private long length;
+
+    /**
+     * Map the given file.
+     * @param path The path of the file
+     * @throws IOException
+     */
+    public MappedFile(String path) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+            length = channel.size();
+            chunks = new MappedByteBuffer[(int) ((length + CHUNK_SIZE - 1) >>> CHUNK_SHIFT)];
+            for (int i = 0; i < chunks.length; ++i) {
+                long start = (long) i << CHUNK_SHIFT;
+                chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(CHUNK_SIZE, length - start));
+            }
+        }
+    }
+
+    /**
+     * Return the length of the file in bytes
+     */
+    public long length() {
+        return length;
+    }
+
+    /**
+     * Read a big endian int.
+     * @param pos The position of the int in the file
+     */
+    public int readInt(long pos) {
+        MappedByteBuffer chunk = chunks[(int) (pos >>> CHUNK_SHIFT)];
+        int offset = (int) (pos & CHUNK_MASK);
+        if (offset + 4 <= chunk.limit()) {
+            return chunk.getInt(offset);
+        }
+        byte[] bytes = new byte[4];
+        read(pos, bytes, 0, 4);
+        return GroupVarintCodec.readInt(bytes, 0, 4);
+    }
+
+    /**
+     * Return a range of bytes as a buffer, to be read in place with absolute positions. A range within a single chunk
+     * is a view of the mapping, and only a range across two chunks is copied to the heap.
+     * @param pos The position of the range in the file
+     * @param numOfBytes The number of bytes of the range
+     */
+    public ByteBuffer slice(long pos, int numOfBytes) {
+        MappedByteBuffer chunk = chunks[(int) (pos >>> CHUNK_SHIFT)];
+        int offset = (int) (pos & CHUNK_MASK);
+        if (offset + numOfBytes <= chunk.limit()) {
+            return chunk.slice(offset, numOfBytes);
+        }
+        byte[] bytes = new byte[numOfBytes];
+        read(pos, bytes, 0, numOfBytes);
+        return ByteBuffer.wrap(bytes);
+    }
+
+    /**
+     * Read a range of bytes.
+     * @param pos The position in the file to read from
+     * @param dst The array to read to
+     * @param offset The offset in dst to read to
+     * @param numOfBytes The number of bytes to read
+     */
+    public void read(long pos, byte[] dst, int offset, int numOfBytes) {
+        while (numOfBytes > 0) {
+            MappedByteBuffer chunk = chunks[(int) (pos >>> CHUNK_SHIFT)];
+            int chunkOffset = (int) (pos & CHUNK_MASK);
+            int n = Math.min(numOfBytes, chunk.limit() - chunkOffset);
+            chunk.get(chunkOffset, dst, offset, n);
+            pos += n;
+            offset += n;
+            numOfBytes -= n;
+        }
+    }
+}
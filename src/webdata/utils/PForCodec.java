@@ -0,0 +1,89 @@
+package webdata.utils;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A patched frame of reference (PForDelta) codec of lists of non-negative ints.
+ * The values are split to blocks of BLOCK_SIZE. The values of a block are bit packed to the number of bits that gives
+ * the smallest block, and the few values that don't fit, the exceptions, are patched with their higher bits afterwards.
+ * A block is stored as: bits (1 byte), number of exceptions (1 byte), the packed lower bits of all values, and the
+ * index (1 byte) and higher bits (varint) of every exception.
+ */
+public class PForCodec implements IntCodec {
+    private static final int BLOCK_SIZE = 128;
+
+    @Override
+    public int maxEncodedSize(int numOfValues) {
+        return 2 * ((numOfValues + BLOCK_SIZE - 1) / BLOCK_SIZE) + 4 * numOfValues;
+    }
+
+    @Override
+    public int encode(int[] values, int numOfValues, byte[] encoded, int offset) {
+        int pos = offset;
+        for (int start = 0; start < numOfValues; start += BLOCK_SIZE) {
+            int length = Math.min(BLOCK_SIZE, numOfValues - start);
+            int bits = chooseBits(values, start, length);
+            int exceptionsPos = pos + 1;
+            encoded[pos] = (byte) bits;
+            pos = BitPacker.pack(values, start, length, bits, encoded, pos + 2);
+            int numOfExceptions = 0;
+            if (bits < 32) {
+                for (int i = 0; i < length; ++i) {
+                    int high = values[start + i] >>> bits;
+                    if (high != 0) {
+                        encoded[pos++] = (byte) i;
+                        pos = BitPacker.writeVarint(high, encoded, pos);
+                        ++numOfExceptions;
+                    }
+                }
+            }
+            encoded[exceptionsPos] = (byte) numOfExceptions;
+        }
+        return pos;
+    }
+
+    /**
+     * Choose the number of bits that gives the smallest encoding of a block.
+     * @param values The values
+     * @param start The index of the first value of the block
+     * @param length The number of values in the block
+     * @return The number of bits
+     */
+    private static int chooseBits(int[] values, int start, int length) {
+        // The number of values requiring every number of bits
+        int[] counts = new int[33];
+        for (int i = start; i < start + length; ++i) {
+            ++counts[BitPacker.bitsRequired(values[i])];
+        }
+        int bestBits = 32;
+        long bestSize = BitPacker.packedSize(length, 32);
+        for (int bits = 0; bits < 32; ++bits) {
+            long size = BitPacker.packedSize(length, bits);
+            for (int required = bits + 1; required <= 32; ++required) {
+                // An exception costs it's index and the varint of it's higher bits
+                size += (long) counts[required] * (1 + (required - bits + 6) / 7);
+            }
+            if (size < bestSize) {
+                bestSize = size;
+                bestBits = bits;
+            }
+        }
+        return bestBits;
+    }
+
+    @Override
+    public int decode(ByteBuffer encoded, int offset, int numOfValues, int[] values) {
+        int[] pos = {offset};
+        for (int start = 0; start < numOfValues; start += BLOCK_SIZE) {
+            int length = Math.min(BLOCK_SIZE, numOfValues - start);
+            int bits = encoded.get(pos[0]);
+            int numOfExceptions = encoded.get(pos[0] + 1) & 0xFF;
+            pos[0] = BitPacker.unpack(encoded, pos[0] + 2, length, bits, values, start);
+            for (int i = 0; i < numOfExceptions; ++i) {
+                int index = start + (encoded.get(pos[0]++) & 0xFF);
+                values[index] |= BitPacker.readVarint(encoded, pos) << bits;
+            }
+        }
+        return pos[0];
+    }
+}
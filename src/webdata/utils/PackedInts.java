@@ -0,0 +1,78 @@
+package webdata.utils;
+
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+
+/**
+ * A fixed width column of ints, every one packed to the number of bits of the largest of them. A negative value takes
+ * all 32 bits.
+ * A column is built on the heap, written to an index file, and read in place once the file is mapped.
+ */
+public class PackedInts {
+
+    private ByteBuffer packed;
+    private int bits;
+    private int size;
+
+    /**
+     * Pack the given values.
+     * @param values The values
+     * @param size The number of values
+     */
+    public PackedInts(int[] values, int size) {
+        int allBits = 0;
+        for (int i = 0; i < size; ++i) {
+            allBits |= values[i];
+        }
+        this.size = size;
+        bits = BitPacker.bitsRequired(allBits);
+        // 4 more bytes, so a value is read with no bounds checks
+        byte[] bytes = new byte[BitPacker.packedSize(size, bits) + 4];
+        BitPacker.pack(values, 0, size, bits, bytes, 0);
+        packed = ByteBuffer.wrap(bytes);
+    }
+
+    /**
+     * Open a column written to an index file.
+     * @param file The index file
+     * @param firstSection The first of the column's sections
+     */
+    public PackedInts(IndexFile file, int firstSection) {
+        LongBuffer scalars = file.longs(firstSection);
+        size = (int) scalars.get(0);
+        bits = (int) scalars.get(1);
+        packed = file.bytes(firstSection + 1);
+    }
+
+    /**
+     * Add the column's sections to an index file.
+     * @param writer The writer of the index file
+     */
+    public void write(IndexFile.Writer writer) {
+        writer.add(LongBuffer.wrap(new long[] {size, bits}));
+        writer.add(packed);
+    }
+
+    /**
+     * Return the number of values
+     */
+    public int size() { return size; }
+
+    /**
+     * Return the i'th value
+     */
+    public int get(int i) {
+        return BitPacker.get(packed, i, bits);
+    }
+
+    /**
+     * Unpack all the values.
+     * @param values The array to unpack to, at least size long
+     * @param from The index in values of the first value
+     */
+    public void getAll(int[] values, int from) {
+        for (int i = 0; i < size; ++i) {
+            values[from + i] = get(i);
+        }
+    }
+}
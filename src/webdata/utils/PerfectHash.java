@@ -0,0 +1,219 @@
+package webdata.utils;
+
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.ShortBuffer;
+
+/**
+ * A minimal perfect hash function of a fixed set of Strings, mapping every one of them to it's ordinal in O(1).
+ * The function is built by hash and displace: the keys are hashed to buckets of about BUCKET_SIZE keys, and for every
+ * bucket, largest first, a seed is searched for that sends all it's keys to free slots of a table of exactly as many
+ * slots as keys. Only the seeds are kept, bit packed, which takes a few bits per key. Every slot also keeps the
+ * ordinal of it's key and a fingerprint of it, so most Strings that aren't keys are told apart without comparing
+ * them to the keys. As a fingerprint may still match, a key found should be compared to the actual key.
+ */
+public class PerfectHash {
+
+    private static final int BUCKET_SIZE = 4;
+    private static final long SEED_STEP = 0x9E3779B97F4A7C15L;
+
+    private int numOfKeys;
+    private int numOfBuckets;
+    private ByteBuffer seeds;
+    private int seedBits;
+    private ByteBuffer ordinals;
+    private int ordinalBits;
+    private ShortBuffer fingerprints;
+
+    /**
+     * Build the function of the given keys.
+     * @param keys The distinct keys, where the ordinal of keys[i] is i
+     * @throws IllegalArgumentException If two keys hash the same, so no seed can tell them apart
+     */
+    public PerfectHash(String[] keys) {
+        numOfKeys = keys.length;
+        numOfBuckets = Math.max(1, (numOfKeys + BUCKET_SIZE - 1) / BUCKET_SIZE);
+        long[] hashes = new long[numOfKeys];
+        for (int i = 0; i < numOfKeys; ++i) {
+            hashes[i] = hash(keys[i]);
+        }
+
+        // Group the keys by bucket, with the buckets ordered from the largest to the smallest
+        int[] bucketStart = new int[numOfBuckets + 1];
+        for (long hash: hashes) {
+            ++bucketStart[bucketOf(hash) + 1];
+        }
+        int maxBucketSize = 0;
+        for (int b = 0; b < numOfBuckets; ++b) {
+            maxBucketSize = Math.max(maxBucketSize, bucketStart[b + 1]);
+            bucketStart[b + 1] += bucketStart[b];
+        }
+        int[] bucketKeys = new int[numOfKeys];
+        int[] fill = bucketStart.clone();
+        for (int i = 0; i < numOfKeys; ++i) {
+            bucketKeys[fill[bucketOf(hashes[i])]++] = i;
+        }
+        int[] bySize = new int[numOfBuckets];
+        int[] sizeStart = new int[maxBucketSize + 2];
+        for (int b = 0; b < numOfBuckets; ++b) {
+            ++sizeStart[maxBucketSize - (bucketStart[b + 1] - bucketStart[b]) + 1];
+        }
+        for (int size = 0; size <= maxBucketSize; ++size) {
+            sizeStart[size + 1] += sizeStart[size];
+        }
+        for (int b = 0; b < numOfBuckets; ++b) {
+            bySize[sizeStart[maxBucketSize - (bucketStart[b + 1] - bucketStart[b])]++] = b;
+        }
+
+        int[] bucketSeeds = new int[numOfBuckets];
+        int[] slotOrdinals = new int[numOfKeys];
+        short[] slotFingerprints = new short[numOfKeys];
+        boolean[] taken = new boolean[numOfKeys];
+        int[] slots = new int[maxBucketSize];
+        int maxSeed = 0;
+        for (int b: bySize) {
+            int from = bucketStart[b];
+            int size = bucketStart[b + 1] - from;
+            if (size == 0) {
+                break;
+            }
+            for (int i = from + 1; i < from + size; ++i) {
+                for (int j = from; j < i; ++j) {
+                    if (hashes[bucketKeys[i]] == hashes[bucketKeys[j]]) {
+                        throw new IllegalArgumentException("Two keys have the same hash");
+                    }
+                }
+            }
+            int seed = 0;
+            while (!place(hashes, bucketKeys, from, size, seed, taken, slots)) {
+                ++seed;
+            }
+            for (int j = 0; j < size; ++j) {
+                int key = bucketKeys[from + j];
+                taken[slots[j]] = true;
+                slotOrdinals[slots[j]] = key;
+                slotFingerprints[slots[j]] = fingerprintOf(hashes[key]);
+            }
+            bucketSeeds[b] = seed;
+            maxSeed = Math.max(maxSeed, seed);
+        }
+
+        // The packed arrays have 4 more bytes, so a value is read with no bounds checks
+        seedBits = BitPacker.bitsRequired(maxSeed);
+        byte[] packedSeeds = new byte[BitPacker.packedSize(numOfBuckets, seedBits) + 4];
+        BitPacker.pack(bucketSeeds, 0, numOfBuckets, seedBits, packedSeeds, 0);
+        seeds = ByteBuffer.wrap(packedSeeds);
+        ordinalBits = BitPacker.bitsRequired(Math.max(0, numOfKeys - 1));
+        byte[] packedOrdinals = new byte[BitPacker.packedSize(numOfKeys, ordinalBits) + 4];
+        BitPacker.pack(slotOrdinals, 0, numOfKeys, ordinalBits, packedOrdinals, 0);
+        ordinals = ByteBuffer.wrap(packedOrdinals);
+        fingerprints = ShortBuffer.wrap(slotFingerprints);
+    }
+
+    /**
+     * Open a function written to an index file, using it in place.
+     * @param file The index file
+     * @param firstSection The first of the function's sections
+     */
+    public PerfectHash(IndexFile file, int firstSection) {
+        LongBuffer scalars = file.longs(firstSection);
+        numOfKeys = (int) scalars.get(0);
+        numOfBuckets = (int) scalars.get(1);
+        seedBits = (int) scalars.get(2);
+        ordinalBits = (int) scalars.get(3);
+        seeds = file.bytes(firstSection + 1);
+        ordinals = file.bytes(firstSection + 2);
+        fingerprints = file.shorts(firstSection + 3);
+    }
+
+    /**
+     * Add the function's sections to an index file.
+     * @param writer The writer of the index file
+     */
+    public void write(IndexFile.Writer writer) {
+        writer.add(LongBuffer.wrap(new long[] {numOfKeys, numOfBuckets, seedBits, ordinalBits}));
+        writer.add(seeds);
+        writer.add(ordinals);
+        writer.add(fingerprints);
+    }
+
+    /**
+     * Find the slots of the keys of a bucket under the given seed.
+     * @return True if they're all free and distinct, in which case they're left in slots
+     */
+    private boolean place(long[] hashes, int[] bucketKeys, int from, int size, int seed, boolean[] taken,
+                          int[] slots) {
+        for (int j = 0; j < size; ++j) {
+            int slot = slotOf(hashes[bucketKeys[from + j]], seed);
+            if (taken[slot]) {
+                return false;
+            }
+            for (int k = 0; k < j; ++k) {
+                if (slots[k] == slot) {
+                    return false;
+                }
+            }
+            slots[j] = slot;
+        }
+        return true;
+    }
+
+    /**
+     * Return the ordinal of the given String if it may be a key, or -1 if it's surely not a key.
+     * The lookup doesn't allocate.
+     */
+    public int get(String key) {
+        if (numOfKeys == 0) {
+            return -1;
+        }
+        long hash = hash(key);
+        int seed = BitPacker.get(seeds, bucketOf(hash), seedBits);
+        int slot = slotOf(hash, seed);
+        if (fingerprints.get(slot) != fingerprintOf(hash)) {
+            return -1;
+        }
+        return BitPacker.get(ordinals, slot, ordinalBits);
+    }
+
+    /**
+     * Return the bucket of a key's hash
+     */
+    private int bucketOf(long hash) {
+        return (int) (((hash >>> 32) * numOfBuckets) >>> 32);
+    }
+
+    /**
+     * Return the slot of a key's hash under the given seed
+     */
+    private int slotOf(long hash, int seed) {
+        return (int) (((mix(hash + seed * SEED_STEP) >>> 32) * numOfKeys) >>> 32);
+    }
+
+    /**
+     * Return the fingerprint of a key's hash, from bits not used to choose it's bucket
+     */
+    private static short fingerprintOf(long hash) {
+        return (short) hash;
+    }
+
+    /**
+     * Hash a String with 64 bit FNV-1a over it's chars, mixed so all the bits depend on all the chars.
+     */
+    private static long hash(String key) {
+        long hash = 0xCBF29CE484222325L;
+        for (int i = 0; i < key.length(); ++i) {
+            hash = (hash ^ key.charAt(i)) * 0x100000001B3L;
+        }
+        return mix(hash);
+    }
+
+    /**
+     * The finalizer of MurmurHash3, a bijection of longs in which every bit of the output depends on every bit of the
+     * input.
+     */
+    private static long mix(long hash) {
+        hash = (hash ^ (hash >>> 33)) * 0xFF51AFD7ED558CCDL;
+        hash = (hash ^ (hash >>> 33)) * 0xC4CEB9FE1A85EC53L;
+        return hash ^ (hash >>> 33);
+    }
+}
@@ -0,0 +1,88 @@
+package webdata.utils;
+
+import java.util.Arrays;
+
+/**
+ * A growable buffer of (term, reviewId, frequency) postings kept in primitive arrays: the term and reviewId of every
+ * posting are packed into a single long, and it's frequency is kept in a parallel int array.
+ */
+public class PostingBuffer {
+    /* Bytes used by a single posting, including the copy made while sorting */
+    public static final int BYTES_PER_POSTING = 2 * (Long.BYTES + Integer.BYTES);
+
+    private long[] postings;
+    private int[] frequencies;
+    private int size = 0;
+
+    /**
+     * Constructor
+     * @param capacity The initial capacity
+     */
+    public PostingBuffer(int capacity) {
+        postings = new long[Math.max(capacity, 16)];
+        frequencies = new int[postings.length];
+    }
+
+    /**
+     * Add a posting
+     * @param term The term of the posting
+     * @param reviewId The reviewId of the posting
+     * @param frequency The frequency of the term in the review
+     */
+    public void add(int term, int reviewId, int frequency) {
+        if (size == postings.length) {
+            postings = Arrays.copyOf(postings, size * 2);
+            frequencies = Arrays.copyOf(frequencies, size * 2);
+        }
+        postings[size] = ((long) term << 32) | (reviewId & 0xFFFFFFFFL);
+        frequencies[size] = frequency;
+        ++size;
+    }
+
+    /**
+     * Return the number of postings
+     */
+    public int size() { return size; }
+
+    /**
+     * Return the term of the i'th posting
+     */
+    public int getTerm(int i) { return (int) (postings[i] >>> 32); }
+
+    /**
+     * Return the reviewId of the i'th posting
+     */
+    public int getReviewId(int i) { return (int) postings[i]; }
+
+    /**
+     * Return the frequency of the i'th posting
+     */
+    public int getFrequency(int i) { return frequencies[i]; }
+
+    /**
+     * Replace the term of every posting by it's rank and sort the postings by rank with a counting sort.
+     * The sort is stable, so if the postings were added in reviewId order they end up sorted by rank and then by
+     * reviewId.
+     * @param ranks The rank of every term, all in [0, ranks.length)
+     */
+    public void sortByRank(int[] ranks) {
+        int[] starts = new int[ranks.length + 1];
+        for (int i = 0; i < size; ++i) {
+            ++starts[ranks[getTerm(i)] + 1];
+        }
+        for (int r = 0; r < ranks.length; ++r) {
+            starts[r + 1] += starts[r];
+        }
+
+        long[] sortedPostings = new long[size];
+        int[] sortedFrequencies = new int[size];
+        for (int i = 0; i < size; ++i) {
+            int rank = ranks[getTerm(i)];
+            int to = starts[rank]++;
+            sortedPostings[to] = ((long) rank << 32) | (postings[i] & 0xFFFFFFFFL);
+            sortedFrequencies[to] = frequencies[i];
+        }
+        postings = sortedPostings;
+        frequencies = sortedFrequencies;
+    }
+}
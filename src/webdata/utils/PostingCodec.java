@@ -0,0 +1,235 @@
+package webdata.utils;
+
+/**
+ * Encodes and decodes posting lists, choosing the codecs of every list by the size they encode it to.
+ * A posting list is split to blocks of BLOCK_SIZE postings, and is stored as: the number of postings (4 bytes, big
+ * endian), a skip table, and the blocks. The skip table holds the last review id (4 bytes), the end offset (4
+ * bytes, from the start of the first block) and the largest frequency (4 bytes) of every block, so a reader can find
+ * the block of a review id without decoding the blocks before it, and bound the scores of a block without decoding
+ * it's frequencies. A list of a single block has no skip table.
+ * A block holds it's review ids and, for tokens, their frequencies. The review ids are encoded as their gaps minus 1,
+ * where the gap of the first id is from the last id of the previous block, and the frequencies minus 1, so a dense
+ * list of ids or a list of frequencies of 1 is all zeros.
+ * The codecs of a list are given by a single codec byte, kept by the dictionary: the codec of the review ids in the
+ * lower 4 bits and the codec of the frequencies in the higher 4 bits.
+ * The review ids can be encoded with group varint, PForDelta or Elias-Fano, and the frequencies with group varint or
+ * bit packing. The smallest encoding is chosen, which depends on the length and the density of the list.
+ */
+public class PostingCodec {
+    public static final int GROUP_VARINT = 0;
+    public static final int PFOR = 1;
+    public static final int ELIAS_FANO = 2;
+    public static final int BIT_PACKED = 3;
+
+    public static final int BLOCK_SIZE = 128;
+    static final int SKIP_ENTRY_SIZE = 12;
+
+    private static final IntCodec[] CODECS = {
+            new GroupVarintCodec(), new PForCodec(), new EliasFanoCodec(), new BitPackedCodec()};
+    private static final int[] REVIEW_CODECS = {GROUP_VARINT, PFOR, ELIAS_FANO};
+    private static final int[] FREQUENCY_CODECS = {GROUP_VARINT, BIT_PACKED};
+
+    /* The last list encoded */
+    private byte[] encoded = new byte[1 << 10];
+    private int size;
+    private byte codec;
+
+    /* Buffers for encoding */
+    private int[] reviewValues = new int[1 << 8];
+    private int[] frequencyValues = new int[1 << 8];
+    private byte[] trial = new byte[1 << 10];
+    private final int[] block = new int[BLOCK_SIZE];
+
+    /**
+     * Encode a posting list.
+     * @param reviews The sorted review ids
+     * @param frequencies The frequencies, or null for a list of products
+     * @param numOfPostings The number of postings
+     */
+    public void encode(int[] reviews, int[] frequencies, int numOfPostings) {
+        if (numOfPostings > reviewValues.length) {
+            reviewValues = new int[Math.max(numOfPostings, reviewValues.length * 2)];
+            frequencyValues = new int[reviewValues.length];
+        }
+        int numOfBlocks = numOfBlocks(numOfPostings);
+        int blocksStart = blocksStart(numOfPostings);
+        int maxSize = blocksStart + 2 * numOfBlocks * maxEncodedSize(BLOCK_SIZE);
+        if (maxSize > encoded.length) {
+            encoded = new byte[Math.max(maxSize, encoded.length * 2)];
+        }
+
+        // The values of every block are relative to the last review id of the previous block
+        int prev = 0;
+        for (int i = 0; i < numOfPostings; ++i) {
+            reviewValues[i] = reviews[i] - prev - 1;
+            prev = reviews[i];
+            if (frequencies != null) {
+                frequencyValues[i] = frequencies[i] - 1;
+            }
+        }
+        int reviewCodec = smallestCodec(REVIEW_CODECS, reviewValues, numOfPostings);
+        int frequencyCodec = (frequencies != null) ?
+                smallestCodec(FREQUENCY_CODECS, frequencyValues, numOfPostings) : GROUP_VARINT;
+        codec = (byte) (reviewCodec | (frequencyCodec << 4));
+
+        GroupVarintCodec.writeInt(numOfPostings, 4, encoded, 0);
+        int pos = blocksStart;
+        for (int b = 0; b < numOfBlocks; ++b) {
+            int start = b * BLOCK_SIZE;
+            int length = Math.min(BLOCK_SIZE, numOfPostings - start);
+            pos = encodeBlock(CODECS[reviewCodec], reviewValues, start, length, pos);
+            if (frequencies != null) {
+                pos = encodeBlock(CODECS[frequencyCodec], frequencyValues, start, length, pos);
+            }
+            if (numOfBlocks > 1) {
+                int entry = 4 + b * SKIP_ENTRY_SIZE;
+                GroupVarintCodec.writeInt(reviews[start + length - 1], 4, encoded, entry);
+                GroupVarintCodec.writeInt(pos - blocksStart, 4, encoded, entry + 4);
+                GroupVarintCodec.writeInt(maxFrequency(frequencies, start, length), 4, encoded, entry + 8);
+            }
+        }
+        size = pos;
+    }
+
+    /**
+     * Return the largest frequency of a block, where a list of products has frequencies of 1.
+     */
+    private static int maxFrequency(int[] frequencies, int start, int length) {
+        int max = 1;
+        if (frequencies != null) {
+            for (int i = start; i < start + length; ++i) {
+                max = Math.max(max, frequencies[i]);
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Encode a block of values.
+     * @param codec The codec to encode with
+     * @param values The values of the list
+     * @param start The index of the first value of the block
+     * @param length The number of values in the block
+     * @param offset The offset in the encoded list to write to
+     * @return The offset after the block
+     */
+    private int encodeBlock(IntCodec codec, int[] values, int start, int length, int offset) {
+        if (start == 0) {
+            return codec.encode(values, length, encoded, offset);
+        }
+        // Codecs encode from the start of the array, so move the block there
+        System.arraycopy(values, start, block, 0, length);
+        return codec.encode(block, length, encoded, offset);
+    }
+
+    /**
+     * Find the codec that encodes the blocks of a list of values to the fewest bytes.
+     * @param codecs The codecs to try
+     * @param values The values
+     * @param numOfValues The number of values
+     * @return The codec chosen
+     */
+    private int smallestCodec(int[] codecs, int[] values, int numOfValues) {
+        if (maxEncodedSize(BLOCK_SIZE) > trial.length) {
+            trial = new byte[maxEncodedSize(BLOCK_SIZE)];
+        }
+        int best = codecs[0];
+        long bestSize = Long.MAX_VALUE;
+        for (int codec: codecs) {
+            long total = 0;
+            for (int start = 0; start < numOfValues; start += BLOCK_SIZE) {
+                int length = Math.min(BLOCK_SIZE, numOfValues - start);
+                System.arraycopy(values, start, block, 0, length);
+                total += CODECS[codec].encode(block, length, trial, 0);
+            }
+            if (total < bestSize) {
+                bestSize = total;
+                best = codec;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Return the maximal number of bytes of the ids or frequencies of a block, in any codec.
+     */
+    private static int maxEncodedSize(int numOfPostings) {
+        int max = 0;
+        for (IntCodec codec: CODECS) {
+            max = Math.max(max, codec.maxEncodedSize(numOfPostings));
+        }
+        return max;
+    }
+
+    /**
+     * Return the last list encoded. It's valid up to getSize().
+     */
+    public byte[] getEncoded() { return encoded; }
+
+    /**
+     * Return the number of bytes of the last list encoded
+     */
+    public int getSize() { return size; }
+
+    /**
+     * Return the codec byte of the last list encoded
+     */
+    public byte getCodec() { return codec; }
+
+    /**
+     * Read the number of postings of an encoded list.
+     * @param encoded The encoded bytes
+     * @param offset The offset of the list in encoded
+     */
+    public static int readSize(byte[] encoded, int offset) {
+        return GroupVarintCodec.readInt(encoded, offset, 4);
+    }
+
+    /**
+     * Return the number of blocks of a list of the given number of postings
+     */
+    static int numOfBlocks(int numOfPostings) {
+        return (numOfPostings + BLOCK_SIZE - 1) / BLOCK_SIZE;
+    }
+
+    /**
+     * Return the offset of the first block of a list of the given number of postings, from the start of the list
+     */
+    static int blocksStart(int numOfPostings) {
+        int numOfBlocks = numOfBlocks(numOfPostings);
+        return 4 + ((numOfBlocks > 1) ? numOfBlocks * SKIP_ENTRY_SIZE : 0);
+    }
+
+    /**
+     * Return the codec of the review ids of a list with the given codec byte
+     */
+    static IntCodec reviewCodec(byte codec) {
+        return CODECS[codec & 0xF];
+    }
+
+    /**
+     * Return the codec of the frequencies of a list with the given codec byte
+     */
+    static IntCodec frequencyCodec(byte codec) {
+        return CODECS[(codec >> 4) & 0xF];
+    }
+
+    /**
+     * Decode a whole posting list.
+     * @param codec The codec byte of the list
+     * @param encoded The encoded bytes
+     * @param offset The offset of the list in encoded
+     * @param reviews The array to decode the review ids to, at least readSize long
+     * @param frequencies The array to decode the frequencies to, at least readSize long, or null for a list of
+     *                    products
+     */
+    public static void decode(byte codec, byte[] encoded, int offset, int[] reviews, int[] frequencies) {
+        PostingsIterator iterator = new BlockPostingsIterator(codec, encoded, offset, frequencies != null);
+        for (int i = 0; iterator.nextDoc() != PostingsIterator.NO_MORE_REVIEWS; ++i) {
+            reviews[i] = iterator.reviewId();
+            if (frequencies != null) {
+                frequencies[i] = iterator.freq();
+            }
+        }
+    }
+}
@@ -0,0 +1,296 @@
+package webdata.utils;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A cache of decoded posting lists, holding at most a given number of bytes of them, and safe for use by several
+ * threads. The lists are keyed by a long, such as the ordinal of their term in it's dictionary.
+ * The lists are evicted least recently used first, but a list is only admitted in place of others if it's been read
+ * more often than every one of them lately (TinyLFU): the reads of all the lists, cached or not, are counted in a
+ * count-min sketch of small counters, which are all halved every so many reads so old reads are forgotten. A rare
+ * list read once therefore doesn't evict the lists of frequent terms. A pinned list is never evicted.
+ * The lists are looked up in a concurrent map, so a read takes no lock: it's only recorded in a lossy ring buffer,
+ * which is drained to the sketch and the recency order by whichever thread gets the eviction lock without waiting
+ * for it. Only admitting a list, which follows the decoding of a list that isn't cached, waits for the lock.
+ */
+public class PostingsCache {
+
+    private static final int SKETCH_DEPTH = 4;
+    private static final int MAX_COUNT = 15;
+    private static final long[] SKETCH_SEEDS = {
+            0x9E3779B97F4A7C15L, 0xC2B2AE3D27D4EB4FL, 0x165667B19E3779F9L, 0xD6E8FEB86659FD93L};
+    private static final int READ_BUFFER_SIZE = 1 << 8;
+    private static final int READ_BUFFER_MASK = READ_BUFFER_SIZE - 1;
+    private static final int DRAIN_PERIOD = READ_BUFFER_SIZE / 4;
+
+    private final long maxBytes;
+
+    /* All the cached lists, pinned or not, read with no lock */
+    private final ConcurrentHashMap<Long, DecodedPostings> lists = new ConcurrentHashMap<>();
+
+    /* The reads not yet drained. A read may be overwritten before it's drained, which only makes the counts lower */
+    private final AtomicLongArray readBuffer = new AtomicLongArray(READ_BUFFER_SIZE);
+    private final AtomicLong numOfReadsRecorded = new AtomicLong();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /* Guarded by the eviction lock: the lists that may be evicted, in access order, so the first is the least
+       recently used, the pinned lists, the count-min sketch of the reads, and the sizes */
+    private final ReentrantLock evictionLock = new ReentrantLock();
+    private final LinkedHashMap<Long, DecodedPostings> evictable = new LinkedHashMap<>(16, 0.75f, true);
+    private final HashMap<Long, DecodedPostings> pinned = new HashMap<>();
+    private final byte[] sketch;
+    private final int sketchMask;
+    private final int resetPeriod;
+    private int numOfReads = 0;
+    private long numOfReadsDrained = 0;
+    private long bytes = 0;
+    private long pinnedBytes = 0;
+
+    /**
+     * Constructor
+     * @param maxBytes The maximal number of bytes of the lists cached, or 0 to cache nothing
+     */
+    public PostingsCache(long maxBytes) {
+        this.maxBytes = Math.max(maxBytes, 0);
+        // About a counter per 256 bytes of lists, which is a few counters per list
+        int width = Integer.highestOneBit((int) Math.max(1 << 10, Math.min(1 << 20, this.maxBytes >> 8)));
+        sketch = new byte[SKETCH_DEPTH * width];
+        sketchMask = width - 1;
+        resetPeriod = 10 * width;
+    }
+
+    /**
+     * Check if the cache may hold any list
+     */
+    public boolean isEnabled() { return maxBytes > 0; }
+
+    /**
+     * Return the cached list of the given key, or null if it's not cached. The read is counted either way.
+     */
+    public DecodedPostings get(long key) {
+        if (!isEnabled()) {
+            misses.increment();
+            return null;
+        }
+        DecodedPostings list = lists.get(key);
+        if (list != null) {
+            hits.increment();
+        } else {
+            misses.increment();
+        }
+        long read = numOfReadsRecorded.getAndIncrement();
+        readBuffer.lazySet((int) (read & READ_BUFFER_MASK), key);
+        if ((read % DRAIN_PERIOD) == DRAIN_PERIOD - 1 && evictionLock.tryLock()) {
+            try {
+                drainReads();
+            } finally {
+                evictionLock.unlock();
+            }
+        }
+        return list;
+    }
+
+    /**
+     * Check if a list not cached would be admitted, so it's worth decoding it for the cache.
+     * @param key The key of the list
+     * @param listBytes The number of bytes of the decoded list
+     */
+    public boolean wouldAdmit(long key, long listBytes) {
+        if (!isEnabled() || listBytes > maxBytes) {
+            return false;
+        }
+        evictionLock.lock();
+        try {
+            drainReads();
+            return victims(key, listBytes) >= 0;
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    /**
+     * Offer a list to the cache, which admits it if there is room for it, or if it's been read more often than the
+     * least recently used lists it would evict.
+     * @param key The key of the list
+     * @param list The decoded list
+     * @return True if it's admitted
+     */
+    public boolean put(long key, DecodedPostings list) {
+        evictionLock.lock();
+        try {
+            if (lists.containsKey(key)) {
+                return true;
+            }
+            drainReads();
+            int numOfVictims = victims(key, list.bytes());
+            if (numOfVictims < 0) {
+                return false;
+            }
+            evict(numOfVictims);
+            evictable.put(key, list);
+            lists.put(key, list);
+            bytes += list.bytes();
+            return true;
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    /**
+     * Cache a list for good, evicting as many unpinned lists as it takes.
+     * @param key The key of the list
+     * @param list The decoded list
+     * @return True if it's pinned, or false if the pinned lists would take more than the cache's bytes
+     */
+    public boolean pin(long key, DecodedPostings list) {
+        evictionLock.lock();
+        try {
+            if (pinned.containsKey(key)) {
+                return true;
+            }
+            if (pinnedBytes + list.bytes() > maxBytes) {
+                return false;
+            }
+            DecodedPostings cached = evictable.remove(key);
+            if (cached != null) {
+                bytes -= cached.bytes();
+            }
+            Iterator<Map.Entry<Long, DecodedPostings>> it = evictable.entrySet().iterator();
+            while (bytes + list.bytes() > maxBytes) {
+                Map.Entry<Long, DecodedPostings> victim = it.next();
+                bytes -= victim.getValue().bytes();
+                lists.remove(victim.getKey());
+                it.remove();
+            }
+            pinned.put(key, list);
+            lists.put(key, list);
+            bytes += list.bytes();
+            pinnedBytes += list.bytes();
+            return true;
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    /**
+     * Count the reads recorded since the last drain in the sketch, and move the lists read to the end of the recency
+     * order. Must be called holding the eviction lock.
+     */
+    private void drainReads() {
+        long recorded = numOfReadsRecorded.get();
+        for (long read = Math.max(numOfReadsDrained, recorded - READ_BUFFER_SIZE); read < recorded; ++read) {
+            long key = readBuffer.get((int) (read & READ_BUFFER_MASK));
+            increment(key);
+            evictable.get(key);
+        }
+        numOfReadsDrained = recorded;
+    }
+
+    /**
+     * Find the least recently used lists a list would evict to be admitted. Must be called holding the eviction lock.
+     * @return The number of lists to evict, or -1 if the list isn't admitted: it's too large, or it's been read at most
+     *         as often as one of the lists it would evict
+     */
+    private int victims(long key, long listBytes) {
+        if (listBytes > maxBytes - pinnedBytes) {
+            return -1;
+        }
+        int frequency = frequency(key);
+        long freed = 0;
+        int numOfVictims = 0;
+        for (Map.Entry<Long, DecodedPostings> victim: evictable.entrySet()) {
+            if (bytes - freed + listBytes <= maxBytes) {
+                break;
+            }
+            if (frequency(victim.getKey()) >= frequency) {
+                return -1;
+            }
+            freed += victim.getValue().bytes();
+            ++numOfVictims;
+        }
+        return numOfVictims;
+    }
+
+    /**
+     * Evict the given number of least recently used lists. Must be called holding the eviction lock.
+     */
+    private void evict(int numOfVictims) {
+        Iterator<Map.Entry<Long, DecodedPostings>> it = evictable.entrySet().iterator();
+        for (int i = 0; i < numOfVictims; ++i) {
+            Map.Entry<Long, DecodedPostings> victim = it.next();
+            bytes -= victim.getValue().bytes();
+            lists.remove(victim.getKey());
+            it.remove();
+        }
+    }
+
+    /**
+     * Count a read of a key in the sketch, halving all the counters once every resetPeriod reads.
+     */
+    private void increment(long key) {
+        for (int row = 0; row < SKETCH_DEPTH; ++row) {
+            int i = counter(key, row);
+            if (sketch[i] < MAX_COUNT) {
+                ++sketch[i];
+            }
+        }
+        if (++numOfReads == resetPeriod) {
+            for (int i = 0; i < sketch.length; ++i) {
+                sketch[i] >>= 1;
+            }
+            numOfReads /= 2;
+        }
+    }
+
+    /**
+     * Return the estimated number of recent reads of a key, the smallest of it's counters
+     */
+    private int frequency(long key) {
+        int min = MAX_COUNT;
+        for (int row = 0; row < SKETCH_DEPTH; ++row) {
+            min = Math.min(min, sketch[counter(key, row)]);
+        }
+        return min;
+    }
+
+    /**
+     * Return the index in the sketch of a key's counter in the given row
+     */
+    private int counter(long key, int row) {
+        long hash = (key + SKETCH_SEEDS[row]) * 0xFF51AFD7ED558CCDL;
+        hash ^= hash >>> 32;
+        return row * (sketchMask + 1) + ((int) hash & sketchMask);
+    }
+
+    /**
+     * Return the number of bytes of the lists cached
+     */
+    public long getBytes() {
+        evictionLock.lock();
+        try {
+            return bytes;
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    /**
+     * Return the number of reads of cached lists
+     */
+    public long getHits() { return hits.sum(); }
+
+    /**
+     * Return the number of reads of lists not cached
+     */
+    public long getMisses() { return misses.sum(); }
+}
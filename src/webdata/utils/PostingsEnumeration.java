@@ -0,0 +1,52 @@
+package webdata.utils;
+
+import java.util.Enumeration;
+import java.util.NoSuchElementException;
+
+/**
+ * Adapts a posting list to an Enumeration of it's review ids, optionally each followed by it's frequency.
+ * The list is read lazily, so only the current block of it is ever decoded.
+ */
+public class PostingsEnumeration implements Enumeration<Integer> {
+
+    private PostingsIterator postings;
+    private boolean withFrequencies;
+    private boolean advanced = false;
+    private boolean frequencyNext = false;
+
+    /**
+     * Constructor
+     * @param postings The posting list
+     * @param withFrequencies Indicates if every review id is followed by the term's frequency in the review
+     */
+    public PostingsEnumeration(PostingsIterator postings, boolean withFrequencies) {
+        this.postings = postings;
+        this.withFrequencies = withFrequencies;
+    }
+
+    @Override
+    public boolean hasMoreElements() {
+        if (frequencyNext) {
+            return true;
+        }
+        if (!advanced) {
+            postings.nextDoc();
+            advanced = true;
+        }
+        return postings.reviewId() != PostingsIterator.NO_MORE_REVIEWS;
+    }
+
+    @Override
+    public Integer nextElement() {
+        if (!hasMoreElements()) {
+            throw new NoSuchElementException();
+        }
+        if (frequencyNext) {
+            frequencyNext = false;
+            return postings.freq();
+        }
+        advanced = false;
+        frequencyNext = withFrequencies;
+        return postings.reviewId();
+    }
+}
@@ -0,0 +1,45 @@
+package webdata.utils;
+
+/**
+ * An iterator over a posting list, in increasing order of review ids.
+ * An iterator starts before the first review of the list, so nextDoc or advance must be called before reading the
+ * current review.
+ */
+public interface PostingsIterator {
+
+    int NO_MORE_REVIEWS = Integer.MAX_VALUE;
+
+    /**
+     * Return the current review id, -1 before the first call to nextDoc or advance, or NO_MORE_REVIEWS at the end
+     */
+    int reviewId();
+
+    /**
+     * Return the frequency of the term in the current review. Lists of products have a frequency of 1.
+     */
+    int freq();
+
+    /**
+     * Return the largest frequency of the term in the block of reviews holding the current review, which bounds the
+     * frequencies up to the end of that block. The iterator must be on a review.
+     */
+    int blockMaxFreq();
+
+    /**
+     * Move to the next review in the list.
+     * @return The review id, or NO_MORE_REVIEWS at the end of the list
+     */
+    int nextDoc();
+
+    /**
+     * Move to the first review in the list with an id of at least target, past the current review.
+     * @param target The review id to advance to
+     * @return The review id, or NO_MORE_REVIEWS if there is none
+     */
+    int advance(int target);
+
+    /**
+     * Return the number of postings in the list, which bounds the number of reviews the iterator visits
+     */
+    long cost();
+}
@@ -1,30 +1,176 @@
 package webdata.utils;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
 
 /**
- * A class representing a minimum heap of BufferedReaders
+ * A reader of a binary run file written by RunWriter, comparable by it's current line so readers can be kept in a
+ * minimum heap. A reader can be limited to a range of terms, in which case it starts reading from the block holding
+ * the first term of the range.
  */
-public class ReaderWrapper implements Comparable<ReaderWrapper> {
+public class ReaderWrapper implements Comparable<ReaderWrapper>, Closeable {
 
-	BufferedReader br;
-	webdata.utils.Line currLine;
+	FileChannel channel;
+	ByteBuffer header = ByteBuffer.allocate(RunWriter.HEADER_SIZE);
+	ByteBuffer stored;
+	byte[] block = new byte[RunWriter.BLOCK_SIZE];
+	ByteBuffer blockBuffer = ByteBuffer.wrap(block);
+	Inflater inflater;
+	int[] ordinals;
+
+	/* The index of the run */
+	long dataLength;
+	long[] blockOffsets;
+	int[] blockFirstTerms;
+
+	/* The range of terms to read, after mapping */
+	int fromTerm = Integer.MIN_VALUE;
+	int toTerm = Integer.MAX_VALUE;
+
+	int pos = 0;
+	int linesLeft = 0;
+	int runTerm = 0;
+	int term = 0;
+	int reviewId = 0;
+	int frequency = 0;
 
 	/**
 	 * Constructor
-	 * @param br BufferedReader
-	 * @param currLine The current line being read
+	 * @param path The run file to read
+	 * @throws IOException
+	 */
+	public ReaderWrapper(Path path) throws IOException {
+		this(path, null);
+	}
+
+	/**
+	 * Constructor
+	 * @param path The run file to read
+	 * @param ordinals A mapping applied to the term of every line read, or null to keep the terms as they are
+	 * @throws IOException
+	 */
+	public ReaderWrapper(Path path, int[] ordinals) throws IOException {
+		this.channel = FileChannel.open(path, StandardOpenOption.READ);
+		this.ordinals = ordinals;
+		try {
+			readIndex();
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Constructor
+	 * @param path The run file to read
+	 * @param ordinals A mapping applied to the term of every line read, or null to keep the terms as they are
+	 * @param fromTerm The first term to read (after mapping)
+	 * @param toTerm The term to stop at (after mapping), exclusive
+	 * @throws IOException
+	 */
+	public ReaderWrapper(Path path, int[] ordinals, int fromTerm, int toTerm) throws IOException {
+		this(path, ordinals);
+		this.fromTerm = fromTerm;
+		this.toTerm = toTerm;
+
+		// Start at the last block that begins before fromTerm, as it may hold the first lines of fromTerm
+		int left = 0, right = blockOffsets.length - 1, start = 0;
+		while (left <= right) {
+			int mid = (left + right) >>> 1;
+			if (mapTerm(blockFirstTerms[mid]) < fromTerm) {
+				start = mid;
+				left = mid + 1;
+			} else {
+				right = mid - 1;
+			}
+		}
+		channel.position((blockOffsets.length == 0) ? dataLength : blockOffsets[start]);
+	}
+
+	/**
+	 * Read the index at the end of the run file.
+	 * @throws IOException
+	 */
+	private void readIndex() throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(8);
+		channel.position(channel.size() - 8);
+		readFully(buffer);
+		buffer.flip();
+		dataLength = buffer.getLong();
+
+		buffer = ByteBuffer.allocate((int) (channel.size() - 8 - dataLength));
+		channel.position(dataLength);
+		readFully(buffer);
+		buffer.flip();
+		int numOfBlocks = buffer.getInt();
+		blockOffsets = new long[numOfBlocks];
+		blockFirstTerms = new int[numOfBlocks];
+		for (int i = 0; i < numOfBlocks; ++i) {
+			blockOffsets[i] = buffer.getLong();
+			blockFirstTerms[i] = buffer.getInt();
+		}
+		channel.position(0);
+	}
+
+	/**
+	 * Apply the mapping of this reader to a term of the run.
+	 */
+	private int mapTerm(int runTerm) {
+		return (ordinals != null) ? ordinals[runTerm] : runTerm;
+	}
+
+	/**
+	 * Returns the file offset of every block
+	 */
+	long[] getBlockOffsets() {
+		return blockOffsets;
+	}
+
+	/**
+	 * Returns the first term of every block, as written in the run (before mapping)
+	 */
+	public int[] getBlockFirstTerms() {
+		return blockFirstTerms;
+	}
+
+	/**
+	 * Returns the length of the blocks, which is the offset of the index
 	 */
-	public ReaderWrapper(BufferedReader br, webdata.utils.Line currLine){
-		this.br = br;
-		this.currLine = currLine;
+	long getDataLength() {
+		return dataLength;
 	}
 
 	/**
-	 * returns the current line
+	 * Returns the channel of the run file
 	 */
-	public Line getCurrLine(){
-		return currLine;
+	FileChannel getChannel() {
+		return channel;
+	}
+
+	/**
+	 * Returns the term of the current line
+	 */
+	public int getTerm() {
+		return term;
+	}
+
+	/**
+	 * Returns the reviewId of the current line
+	 */
+	public int getReviewId() {
+		return reviewId;
+	}
+
+	/**
+	 * Returns the frequency of the current line
+	 */
+	public int getFrequency() {
+		return frequency;
 	}
 
 	/**
@@ -33,18 +179,125 @@ public class ReaderWrapper implements Comparable<ReaderWrapper> {
 	 * @throws IOException
 	 */
 	public boolean advancePtr() throws IOException{
-		String line = br.readLine();
-		if (line != null){
-			currLine = new Line(line);
-			return true;
+		do {
+			if (linesLeft == 0 && !readBlock()) {
+				close();
+				return false;
+			}
+			int termGap = getVarint();
+			termGap = (termGap >>> 1) ^ -(termGap & 1);
+			runTerm += termGap;
+			reviewId = (termGap == 0) ? reviewId + getVarint() : getVarint();
+			frequency = getVarint();
+			term = mapTerm(runTerm);
+			--linesLeft;
+		} while (term < fromTerm);
+		if (term >= toTerm) {
+			close();
+			return false;
 		}
-		currLine = null;
-		br.close();
-		return false;
+		return true;
+	}
+
+	/**
+	 * Read the next varint of the current block.
+	 */
+	private int getVarint() {
+		int value = 0;
+		int shift = 0;
+		byte b;
+		do {
+			b = block[pos++];
+			value |= (b & 0x7F) << shift;
+			shift += 7;
+		} while (b < 0);
+		return value;
+	}
+
+	/**
+	 * Read the next block of the file.
+	 * @return True if a block was read, False if the end of the file was reached
+	 * @throws IOException
+	 */
+	private boolean readBlock() throws IOException {
+		if (channel.position() >= dataLength) {
+			return false;
+		}
+		header.clear();
+		if (!readFully(header)) {
+			return false;
+		}
+		header.flip();
+		byte flags = header.get();
+		linesLeft = header.getInt();
+		int rawLength = header.getInt();
+		int storedLength = header.getInt();
+
+		boolean compressed = (flags & RunWriter.COMPRESSED_FLAG) != 0;
+		if (compressed && stored == null) {
+			stored = ByteBuffer.allocate(RunWriter.BLOCK_SIZE);
+		}
+		ByteBuffer target = compressed ? stored : blockBuffer;
+		target.clear().limit(storedLength);
+		if (!readFully(target)) {
+			throw new EOFException("Truncated run file");
+		}
+		if (compressed) {
+			if (inflater == null) {
+				inflater = new Inflater();
+			}
+			inflater.reset();
+			inflater.setInput(stored.array(), 0, storedLength);
+			try {
+				if (inflater.inflate(block, 0, rawLength) != rawLength) {
+					throw new IOException("Corrupted run file");
+				}
+			} catch (DataFormatException e) {
+				throw new IOException(e);
+			}
+		}
+		pos = 0;
+		runTerm = 0;
+		reviewId = 0;
+		return true;
+	}
+
+	/**
+	 * Fill the given buffer from the channel.
+	 * @param buffer The buffer to fill
+	 * @return False if the end of the file was reached before anything was read
+	 * @throws IOException
+	 */
+	private boolean readFully(ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer) < 0) {
+				if (buffer.position() == 0) {
+					return false;
+				}
+				throw new EOFException("Truncated run file");
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Close the underlying file.
+	 * @throws IOException
+	 */
+	@Override
+	public void close() throws IOException {
+		if (inflater != null) {
+			inflater.end();
+			inflater = null;
+		}
+		channel.close();
 	}
 
 	@Override
 	public int compareTo(ReaderWrapper o) {
-		return currLine.compareTo(o.currLine);
+		if (term == o.term) {
+			return Integer.compare(reviewId, o.reviewId);
+		}
+		return Integer.compare(term, o.term);
 	}
 }
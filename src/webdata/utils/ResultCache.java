@@ -0,0 +1,75 @@
+package webdata.utils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A cache of query results holding at most a given number of entries, evicting the least recently used entry when it's
+ * full. It counts it's hits and misses. The cache is safe for use by several threads.
+ */
+public class ResultCache<K, V> {
+
+    private int maxEntries;
+    private LinkedHashMap<K, V> entries;
+    private long hits = 0;
+    private long misses = 0;
+
+    /**
+     * Constructor
+     * @param maxEntries The maximal number of entries, or 0 to cache nothing
+     */
+    public ResultCache(int maxEntries) {
+        this.maxEntries = Math.max(maxEntries, 0);
+        // Iterated in access order, so the eldest entry is the least recently used
+        entries = new LinkedHashMap<K, V>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+                return size() > ResultCache.this.maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Return the value cached for the given key, or null if there is none
+     */
+    public synchronized V get(K key) {
+        V value = entries.get(key);
+        if (value != null) {
+            ++hits;
+        } else {
+            ++misses;
+        }
+        return value;
+    }
+
+    /**
+     * Cache a value, evicting the least recently used entry if the cache is full.
+     */
+    public synchronized void put(K key, V value) {
+        if (maxEntries > 0) {
+            entries.put(key, value);
+        }
+    }
+
+    /**
+     * Remove all the entries, keeping the counts of hits and misses.
+     */
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    /**
+     * Return the number of entries
+     */
+    public synchronized int size() { return entries.size(); }
+
+    /**
+     * Return the number of lookups that found a value
+     */
+    public synchronized long getHits() { return hits; }
+
+    /**
+     * Return the number of lookups that found no value
+     */
+    public synchronized long getMisses() { return misses; }
+}
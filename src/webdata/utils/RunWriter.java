@@ -0,0 +1,207 @@
+package webdata.utils;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+
+/**
+ * A writer of sorted (term, reviewId, frequency) lines to a binary run file.
+ * The lines are written in blocks of at most BLOCK_SIZE bytes. Within a block the term is stored as a zig-zag varint
+ * gap from the previous line's term, the reviewId as a varint gap from the previous reviewId if the term is the same
+ * (and as is otherwise), and the frequency as a varint. Every block starts from zero, so it can be decoded on it's own,
+ * and is optionally compressed.
+ * A block is stored as: flags (1 byte), number of lines (4 bytes), raw length (4 bytes), stored length (4 bytes) and
+ * the stored bytes.
+ * The blocks are followed by an index holding the number of blocks (4 bytes) and the file offset (8 bytes) and first
+ * term (4 bytes) of every block, and the file ends with the offset of the index (8 bytes). The index lets a reader
+ * start from the block of a given term, so a run can be merged in term ranges.
+ */
+public class RunWriter implements Closeable {
+    static final int BLOCK_SIZE = 1 << 16;
+    static final int HEADER_SIZE = 13;
+    static final byte COMPRESSED_FLAG = 1;
+    static final int INDEX_ENTRY_SIZE = 12;
+    private static final int MAX_LINE_SIZE = 15;  // Three varints of at most 5 bytes each
+
+    private FileChannel channel;
+    private ByteBuffer out;
+    private byte[] block = new byte[BLOCK_SIZE];
+    private int blockLength = 0;
+    private int numOfLines = 0;
+    private int prevTerm = 0;
+    private int prevReviewId = 0;
+    private int firstTerm = 0;
+
+    /* The index of the blocks written so far */
+    private long filePointer = 0;
+    private int numOfBlocks = 0;
+    private long[] blockOffsets = new long[16];
+    private int[] blockFirstTerms = new int[16];
+
+    private Deflater deflater;
+    private byte[] compressed;
+
+    /**
+     * Constructor
+     * @param path The run file to write. An existing file is overwritten.
+     * @param compress Indicates if the blocks should be compressed
+     * @throws IOException
+     */
+    public RunWriter(Path path, boolean compress) throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                   StandardOpenOption.TRUNCATE_EXISTING);
+        out = ByteBuffer.allocateDirect(HEADER_SIZE + BLOCK_SIZE + (BLOCK_SIZE >> 4) + 64);
+        if (compress) {
+            deflater = new Deflater(Deflater.BEST_SPEED);
+            compressed = new byte[BLOCK_SIZE + (BLOCK_SIZE >> 4) + 64];
+        }
+    }
+
+    /**
+     * Write a single line. Lines must be written sorted by term (in the order of the run) and then by reviewId.
+     * @param term The term of the line
+     * @param reviewId The reviewId of the line
+     * @param frequency The frequency of the term in the review
+     * @throws IOException
+     */
+    public void write(int term, int reviewId, int frequency) throws IOException {
+        if (BLOCK_SIZE - blockLength < MAX_LINE_SIZE) {
+            flushBlock();
+        }
+        if (numOfLines == 0) {
+            firstTerm = term;
+        }
+        int termGap = term - prevTerm;
+        putVarint((termGap << 1) ^ (termGap >> 31));
+        putVarint((termGap == 0) ? reviewId - prevReviewId : reviewId);
+        putVarint(frequency);
+        prevTerm = term;
+        prevReviewId = reviewId;
+        ++numOfLines;
+    }
+
+    /**
+     * Append a varint to the current block.
+     * @param value The value, treated as unsigned
+     */
+    private void putVarint(int value) {
+        while ((value & ~0x7F) != 0) {
+            block[blockLength++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        block[blockLength++] = (byte) value;
+    }
+
+    /**
+     * Write the current block to the channel and start a new one.
+     * @throws IOException
+     */
+    private void flushBlock() throws IOException {
+        if (numOfLines == 0) {
+            return;
+        }
+        byte flags = 0;
+        byte[] stored = block;
+        int storedLength = blockLength;
+        if (deflater != null) {
+            deflater.reset();
+            deflater.setInput(block, 0, blockLength);
+            deflater.finish();
+            int length = deflater.deflate(compressed);
+            if (deflater.finished() && length < blockLength) {
+                flags = COMPRESSED_FLAG;
+                stored = compressed;
+                storedLength = length;
+            }
+        }
+        out.clear();
+        out.put(flags).putInt(numOfLines).putInt(blockLength).putInt(storedLength);
+        out.put(stored, 0, storedLength);
+        out.flip();
+        addToIndex(filePointer, firstTerm);
+        filePointer += out.remaining();
+        writeFully(out);
+        blockLength = 0;
+        numOfLines = 0;
+        prevTerm = 0;
+        prevReviewId = 0;
+    }
+
+    /**
+     * Add a block to the index.
+     * @param offset The file offset of the block
+     * @param term The first term of the block
+     */
+    private void addToIndex(long offset, int term) {
+        if (numOfBlocks == blockOffsets.length) {
+            blockOffsets = Arrays.copyOf(blockOffsets, numOfBlocks * 2);
+            blockFirstTerms = Arrays.copyOf(blockFirstTerms, numOfBlocks * 2);
+        }
+        blockOffsets[numOfBlocks] = offset;
+        blockFirstTerms[numOfBlocks] = term;
+        ++numOfBlocks;
+    }
+
+    /**
+     * Write the whole buffer to the channel.
+     * @param buffer The buffer to write
+     * @throws IOException
+     */
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * Append all lines of another run file after the lines written so far, copying it's blocks as they are.
+     * The other run's lines must come after the lines written so far in the order of the run.
+     * @param path The run file to append
+     * @throws IOException
+     */
+    public void append(Path path) throws IOException {
+        flushBlock();
+        try (ReaderWrapper reader = new ReaderWrapper(path)) {
+            long[] offsets = reader.getBlockOffsets();
+            int[] firstTerms = reader.getBlockFirstTerms();
+            for (int i = 0; i < offsets.length; ++i) {
+                addToIndex(filePointer + offsets[i], firstTerms[i]);
+            }
+            long dataLength = reader.getDataLength();
+            FileChannel in = reader.getChannel();
+            long copied = 0;
+            while (copied < dataLength) {
+                copied += in.transferTo(copied, dataLength - copied, channel);
+            }
+            filePointer += dataLength;
+        }
+    }
+
+    /**
+     * Flush the last block, write the index and close the file.
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            flushBlock();
+            ByteBuffer index = ByteBuffer.allocate(4 + numOfBlocks * INDEX_ENTRY_SIZE + 8);
+            index.putInt(numOfBlocks);
+            for (int i = 0; i < numOfBlocks; ++i) {
+                index.putLong(blockOffsets[i]).putInt(blockFirstTerms[i]);
+            }
+            index.putLong(filePointer);
+            index.flip();
+            writeFully(index);
+        } finally {
+            if (deflater != null) {
+                deflater.end();
+            }
+            channel.close();
+        }
+    }
+}
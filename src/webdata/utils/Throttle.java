@@ -0,0 +1,55 @@
+package webdata.utils;
+
+/**
+ * A throttle for background work, limiting the rate of the bytes it processes and the share of CPU time it takes.
+ * The work calls pause after every step with the number of bytes the step processed, and pause sleeps as needed.
+ */
+public class Throttle {
+    /* The CPU limit is applied on slices of at least this much work */
+    private static final long SLICE_NANOS = 10_000_000L;
+
+    private final long bytesPerSecond;
+    private final double cpuFraction;
+
+    private final long startNanos = System.nanoTime();
+    private long numOfBytes = 0;
+    private long sliceStartNanos = startNanos;
+
+    /**
+     * Constructor
+     * @param bytesPerSecond The maximal rate of bytes, or 0 for no limit
+     * @param cpuFraction The maximal fraction of the wall clock time spent working, in (0, 1]. 1 means no limit.
+     */
+    public Throttle(long bytesPerSecond, double cpuFraction) {
+        this.bytesPerSecond = bytesPerSecond;
+        this.cpuFraction = cpuFraction;
+    }
+
+    /**
+     * Account for a step of work, sleeping if the work is ahead of the limits.
+     * @param bytes The number of bytes processed by the step
+     */
+    public void pause(long bytes) {
+        long now = System.nanoTime();
+        long sleepNanos = 0;
+        if (bytesPerSecond > 0) {
+            numOfBytes += bytes;
+            long dueNanos = startNanos + (long) (numOfBytes * 1e9 / bytesPerSecond);
+            sleepNanos = dueNanos - now;
+        }
+        long busyNanos = now - sliceStartNanos;
+        if (cpuFraction < 1 && busyNanos >= SLICE_NANOS) {
+            sleepNanos = Math.max(sleepNanos, (long) (busyNanos * (1 - cpuFraction) / cpuFraction));
+        }
+        if (sleepNanos > 0) {
+            try {
+                Thread.sleep(sleepNanos / 1_000_000L, (int) (sleepNanos % 1_000_000L));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (sleepNanos > 0 || busyNanos >= SLICE_NANOS) {
+            sliceStartNanos = System.nanoTime();
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package webdata.utils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * A reusable tokenizer that breaks texts, given as bytes, to their alphanumeric ASCII tokens without creating
+ * intermediate Strings. Any other byte, including every byte of a multi-byte character, separates tokens.
+ * Tokens are lower cased as they are scanned and looked up in an open addressing hash table, which assigns every
+ * distinct term an id in order of first appearance. The characters of a term are kept only once, in a shared pool.
+ * The frequency of every term in the last text tokenized is counted in a primitive array indexed by the term's id.
+ */
+public class Tokenizer {
+    private static final int INITIAL_CAPACITY = 1 << 12;
+
+    /* The hash table, holding id + 1 of the term in every used slot and 0 in free slots */
+    private int[] table = new int[INITIAL_CAPACITY];
+
+    /* The terms, by id */
+    private int numOfTerms = 0;
+    private int[] hashes = new int[INITIAL_CAPACITY];
+    private int[] starts = new int[INITIAL_CAPACITY];
+    private int[] lengths = new int[INITIAL_CAPACITY];
+    private byte[] pool = new byte[INITIAL_CAPACITY * 8];
+    private int poolSize = 0;
+
+    /* The frequencies of the terms in the last text, and the distinct terms it had in order of appearance */
+    private int[] frequencies = new int[INITIAL_CAPACITY];
+    private int[] distinct = new int[INITIAL_CAPACITY];
+    private int numOfDistinct = 0;
+
+    /* The token currently scanned */
+    private byte[] token = new byte[64];
+
+    /**
+     * Break a text to it's tokens and count the frequency of every distinct term.
+     * @param text The bytes of the text
+     * @param from The index of the first byte of the text
+     * @param to The index after the last byte of the text
+     * @return The number of tokens in the text
+     */
+    public int tokenize(byte[] text, int from, int to) {
+        for (int i = 0; i < numOfDistinct; ++i) {
+            frequencies[distinct[i]] = 0;
+        }
+        numOfDistinct = 0;
+
+        int numOfTokens = 0;
+        int length = 0;
+        int hash = 0;
+        for (int i = from; i <= to; ++i) {
+            byte c = (i < to) ? text[i] : (byte) ' ';
+            if (c >= 'A' && c <= 'Z') {
+                c += 'a' - 'A';
+            } else if (!((c >= 'a' && c <= 'z') || (c >= '0' && c <= '9'))) {
+                if (length > 0) {
+                    count(hash, length);
+                    ++numOfTokens;
+                    length = 0;
+                    hash = 0;
+                }
+                continue;
+            }
+            if (length == token.length) {
+                token = Arrays.copyOf(token, length * 2);
+            }
+            token[length++] = c;
+            hash = 31 * hash + c;
+        }
+        return numOfTokens;
+    }
+
+    /**
+     * Count a single occurrence of the scanned token.
+     * @param hash The hash of the token
+     * @param length The length of the token
+     */
+    private void count(int hash, int length) {
+        int id = lookup(hash, length);
+        if (frequencies[id]++ == 0) {
+            distinct[numOfDistinct++] = id;
+        }
+    }
+
+    /**
+     * Find the id of the scanned token, adding it as a new term if it wasn't seen yet.
+     * @param hash The hash of the token
+     * @param length The length of the token
+     * @return The id of the term
+     */
+    private int lookup(int hash, int length) {
+        int mask = table.length - 1;
+        int slot = mix(hash) & mask;
+        while (table[slot] != 0) {
+            int id = table[slot] - 1;
+            if (hashes[id] == hash && equalsToken(id, length)) {
+                return id;
+            }
+            slot = (slot + 1) & mask;
+        }
+        int id = addTerm(hash, length);
+        table[slot] = id + 1;
+        if (numOfTerms * 2 > table.length) {
+            rehash();
+        }
+        return id;
+    }
+
+    /**
+     * Check if the term with the given id equals the scanned token.
+     */
+    private boolean equalsToken(int id, int length) {
+        if (lengths[id] != length) {
+            return false;
+        }
+        int start = starts[id];
+        for (int i = 0; i < length; ++i) {
+            if (pool[start + i] != token[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Add the scanned token as a new term.
+     * @return The id of the new term
+     */
+    private int addTerm(int hash, int length) {
+        if (numOfTerms == hashes.length) {
+            int capacity = numOfTerms * 2;
+            hashes = Arrays.copyOf(hashes, capacity);
+            starts = Arrays.copyOf(starts, capacity);
+            lengths = Arrays.copyOf(lengths, capacity);
+            frequencies = Arrays.copyOf(frequencies, capacity);
+            distinct = Arrays.copyOf(distinct, capacity);
+        }
+        if (poolSize + length > pool.length) {
+            pool = Arrays.copyOf(pool, Math.max(pool.length * 2, poolSize + length));
+        }
+        System.arraycopy(token, 0, pool, poolSize, length);
+        hashes[numOfTerms] = hash;
+        starts[numOfTerms] = poolSize;
+        lengths[numOfTerms] = length;
+        poolSize += length;
+        return numOfTerms++;
+    }
+
+    /**
+     * Double the hash table.
+     */
+    private void rehash() {
+        table = new int[table.length * 2];
+        int mask = table.length - 1;
+        for (int id = 0; id < numOfTerms; ++id) {
+            int slot = mix(hashes[id]) & mask;
+            while (table[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = id + 1;
+        }
+    }
+
+    /**
+     * Spread the bits of a String hash code over the table.
+     */
+    private static int mix(int hash) {
+        hash *= 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * Return the number of distinct terms in the last text
+     */
+    public int getNumOfDistinct() { return numOfDistinct; }
+
+    /**
+     * Return the id of the i'th distinct term of the last text, in order of appearance
+     */
+    public int getDistinct(int i) { return distinct[i]; }
+
+    /**
+     * Return the frequency of the term with the given id in the last text
+     */
+    public int getFrequency(int id) { return frequencies[id]; }
+
+    /**
+     * Return the number of terms seen by this tokenizer
+     */
+    public int getNumOfTerms() { return numOfTerms; }
+
+    /**
+     * Return all terms seen by this tokenizer, where the String at index i is the term with id i
+     */
+    public ArrayList<String> getTerms() {
+        ArrayList<String> terms = new ArrayList<>(numOfTerms);
+        for (int id = 0; id < numOfTerms; ++id) {
+            terms.add(new String(pool, starts[id], lengths[id], StandardCharsets.US_ASCII));
+        }
+        return terms;
+    }
+}
@@ -0,0 +1,142 @@
+package webdata.utils;
+
+import java.util.Arrays;
+
+/**
+ * Collects the k best of a stream of scored ids, ranked by score descending and then by id ascending.
+ * The collected ids are kept in a bounded binary heap over parallel arrays of ids and scores, with the worst of them at
+ * the root, so an id is collected in O(log k) and no object is allocated per id.
+ */
+public class TopKCollector {
+
+    private int k;
+    private int[] ids;
+    private double[] scores;
+    private int size = 0;
+
+    /**
+     * Constructor
+     * @param k The number of ids to keep
+     */
+    public TopKCollector(int k) {
+        this.k = Math.max(k, 0);
+        ids = new int[Math.min(this.k, 1 << 4)];
+        scores = new double[ids.length];
+    }
+
+    /**
+     * Return the number of ids collected, which is at most k
+     */
+    public int size() { return size; }
+
+    /**
+     * Check if k ids were collected, so an id must beat the worst of them to be collected
+     */
+    public boolean isFull() { return size == k; }
+
+    /**
+     * Return the score an id must reach to be collected: the score of the worst id collected once k were collected,
+     * or negative infinity before that.
+     */
+    public double threshold() {
+        return (isFull() && k > 0) ? scores[0] : Double.NEGATIVE_INFINITY;
+    }
+
+    /**
+     * Offer an id.
+     * @param id The id
+     * @param score It's score
+     * @return True if it's collected
+     */
+    public boolean collect(int id, double score) {
+        if (size < k) {
+            if (size == ids.length) {
+                int capacity = (int) Math.min(k, ids.length * 2L);
+                ids = Arrays.copyOf(ids, capacity);
+                scores = Arrays.copyOf(scores, capacity);
+            }
+            ids[size] = id;
+            scores[size] = score;
+            siftUp(size++);
+            return true;
+        }
+        if (k == 0 || !isWorse(scores[0], ids[0], score, id)) {
+            return false;
+        }
+        ids[0] = id;
+        scores[0] = score;
+        siftDown(0);
+        return true;
+    }
+
+    /**
+     * Return the ids collected, best first, emptying the collector.
+     */
+    public int[] topIds() {
+        int[] top = new int[size];
+        while (size > 0) {
+            top[size - 1] = ids[0];
+            --size;
+            ids[0] = ids[size];
+            scores[0] = scores[size];
+            siftDown(0);
+        }
+        return top;
+    }
+
+    /**
+     * Check if the first id ranks below the second. Equal scores, including infinite ones, are ranked by id.
+     */
+    private static boolean isWorse(double score1, int id1, double score2, int id2) {
+        if (score1 == score2) {
+            return id1 > id2;
+        }
+        return score1 < score2;
+    }
+
+    /**
+     * Move the id at the given position of the heap up, until it's parent is worse than it.
+     */
+    private void siftUp(int i) {
+        int id = ids[i];
+        double score = scores[i];
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (!isWorse(score, id, scores[parent], ids[parent])) {
+                break;
+            }
+            ids[i] = ids[parent];
+            scores[i] = scores[parent];
+            i = parent;
+        }
+        ids[i] = id;
+        scores[i] = score;
+    }
+
+    /**
+     * Move the id at the given position of the heap down, until it's worse than it's children.
+     */
+    private void siftDown(int i) {
+        int id = ids[i];
+        double score = scores[i];
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && isWorse(scores[child + 1], ids[child + 1], scores[child], ids[child])) {
+                ++child;
+            }
+            if (!isWorse(scores[child], ids[child], score, id)) {
+                break;
+            }
+            ids[i] = ids[child];
+            scores[i] = scores[child];
+            i = child;
+        }
+        if (i < size) {
+            ids[i] = id;
+            scores[i] = score;
+        }
+    }
+}